@@ -0,0 +1,145 @@
+/**
+ * Copyright 2010,2011 Trevor Boyce
+ *
+ * This file is part of Kings in the Corner.
+ *
+ *    Kings in the Corner is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    Kings in the Corner is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with Kings in the Corner.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.asparagusprograms.kingsinthecorner;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Process;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+/**
+ * Loads the game's images into the {@link CardImageCache} on a background
+ * thread before a game starts, so starting a game, dealing and restoring
+ * a saved game never wait on decoding. Start preloading with
+ * {@link #preload(Context)} from the main menu, then wait for it to finish
+ * with {@link #await(long)} when a game starts.
+ */
+public class AssetLoader {
+	/** The tag used when logging. */
+	private static final String TAG = "AssetLoader";
+
+	/**
+	 * The thread images are loaded on. A single thread is enough, since the
+	 * game only waits for both atlases together.
+	 */
+	private static final ExecutorService sPool = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(final Runnable r) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+					r.run();
+				}
+			}, "AssetLoader");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/** Loads that haven't been waited for yet. Guarded by itself. */
+	private static final ArrayList<Future<?>> sPending = new ArrayList<Future<?>>();
+	/** The card style of the faces in {@link #sPending}. Guarded by {@link #sPending}. */
+	private static String sPendingStyle;
+
+	private AssetLoader() {}
+
+	/**
+	 * Starts loading the card backs, glows, player badges and the faces for
+	 * the chosen card style. Images that are already cached are not loaded again,
+	 * and nothing is started if the same images are still loading.
+	 * @param context The context used to get preferences and image resources.
+	 */
+	public static void preload(Context context) {
+		final Context app = context.getApplicationContext();
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(app);
+		final String style = prefs.getString(app.getString(R.string.pref_key_cardImage), app.getString(R.string.cardImage_default));
+		// Apply the image memory setting before anything is charged to it
+		BitmapBudget.setLimitDivisor(Integer.parseInt(prefs.getString(app.getString(R.string.pref_key_imageMemory), app.getString(R.string.imageMemory_default))));
+
+		synchronized (sPending) {
+			// Loads already finished have nothing left to wait for
+			for (Iterator<Future<?>> it = sPending.iterator(); it.hasNext();) {
+				if (it.next().isDone()) it.remove();
+			}
+			if (!sPending.isEmpty() && style.equals(sPendingStyle)) return;
+			sPendingStyle = style;
+
+			sPending.add(sPool.submit(new Runnable() {
+				@Override
+				public void run() {
+					CardImageCache.preloadTable(app);
+				}
+			}));
+			sPending.add(sPool.submit(new Runnable() {
+				@Override
+				public void run() {
+					CardImageCache.preloadFaces(app, style);
+				}
+			}));
+		}
+	}
+
+	/**
+	 * Waits for the images started by {@link #preload(Context)} to finish loading.
+	 * @param timeoutMillis The longest to wait, in milliseconds.
+	 * @return True if every image has been loaded, false if the time ran out first.
+	 */
+	public static boolean await(long timeoutMillis) {
+		long deadline = SystemClock.uptimeMillis() + timeoutMillis;
+		while (true) {
+			Future<?> load;
+			synchronized (sPending) {
+				if (sPending.isEmpty()) return true;
+				load = sPending.get(0);
+			}
+
+			try {
+				load.get(Math.max(deadline - SystemClock.uptimeMillis(), 0), TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				Log.w(TAG, "Images still loading after " + timeoutMillis + "ms");
+				return false;
+			} catch (InterruptedException e) {
+				// Leave the interrupt for the caller to see
+				Thread.currentThread().interrupt();
+				return false;
+			} catch (ExecutionException e) {
+				// The image will be loaded again when it is first used
+				Log.e(TAG, e.getCause().toString());
+			}
+
+			synchronized (sPending) {
+				sPending.remove(load);
+			}
+		}
+	}
+}
@@ -0,0 +1,365 @@
+/**
+ * Copyright 2010,2011 Trevor Boyce
+ *
+ * This file is part of Kings in the Corner.
+ *
+ *    Kings in the Corner is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    Kings in the Corner is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with Kings in the Corner.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.asparagusprograms.kingsinthecorner;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.HashSet;
+import java.util.Set;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.util.TypedValue;
+
+/**
+ * Decodes and creates the game's bitmaps and keeps track of the memory
+ * they use. Every bitmap is charged to a single budget, a fraction of
+ * the heap chosen in the settings. Images are decoded no larger than
+ * they are drawn, and when the budget is full images are decoded at a
+ * lower resolution instead of running out of memory.
+ * <p>
+ * How much of the budget is used can be written to the log with
+ * {@link #logUsage()}.
+ */
+public class BitmapBudget {
+	/** The tag used when logging memory use. */
+	private static final String TAG = "BitmapBudget";
+
+	/** The fraction of the heap used when no other is set, as a divisor. */
+	public static final int DEFAULT_DIVISOR = 4;
+
+	/** The most an image is ever downsampled to fit in the budget. */
+	private static final int MAX_SAMPLE_SIZE = 8;
+
+	/** The most memory bitmaps may use, in bytes. */
+	private static long sLimit = Runtime.getRuntime().maxMemory() / DEFAULT_DIVISOR;
+	/** The memory used by bitmaps, in bytes. */
+	private static long sUsed;
+	/** The most memory bitmaps have used at once, in bytes. */
+	private static long sPeak;
+	/** The number of images decoded at a lower resolution to fit the budget. */
+	private static int sDownsampled;
+	/** The number of bitmaps charged even though the budget was full. */
+	private static int sOverLimit;
+	/** Bitmaps given up but maybe still drawn from, which stay charged until they are collected. */
+	private static final Set<Unused> sUnused = new HashSet<Unused>();
+	/** Where {@link #sUnused} bitmaps are put once they are collected. */
+	private static final ReferenceQueue<Bitmap> sCollected = new ReferenceQueue<Bitmap>();
+	/** The memory used by {@link #sUnused} bitmaps, in bytes. */
+	private static long sUnusedSize;
+
+	private BitmapBudget() {}
+
+	/**
+	 * Sets the budget to a fraction of the heap.
+	 * @param divisor The heap size is divided by this. Must be at least 1.
+	 */
+	public static synchronized void setLimitDivisor(int divisor) {
+		sLimit = Runtime.getRuntime().maxMemory() / Math.max(divisor, 1);
+	}
+
+	/**
+	 * Gets the most memory bitmaps may use.
+	 * @return The budget in bytes.
+	 */
+	public static synchronized long getLimit() {
+		return sLimit;
+	}
+
+	/**
+	 * Gets the memory used by bitmaps.
+	 * @return The memory used in bytes.
+	 */
+	public static synchronized long getUsed() {
+		pollCollected();
+		return sUsed;
+	}
+
+	/**
+	 * Gets whether bitmaps are using more memory than the budget.
+	 * @return True if the budget is full.
+	 */
+	public static synchronized boolean isOverLimit() {
+		pollCollected();
+		return sUsed > sLimit;
+	}
+
+	/**
+	 * Gets whether there will be room in the budget for more memory once
+	 * every bitmap given to {@link #releaseWhenUnused(Bitmap)} is collected.
+	 * @param bytes The memory needed in bytes, or 0 to check the budget isn't over.
+	 * @return True if the memory fits once bitmaps already given up are collected.
+	 */
+	public static synchronized boolean fitsWhenCollected(long bytes) {
+		pollCollected();
+		return sUsed - sUnusedSize + bytes <= sLimit;
+	}
+
+	/**
+	 * Gets the memory used by a bitmap.
+	 * @param bitmap The bitmap.
+	 * @return The size of its pixels in bytes.
+	 */
+	public static long sizeOf(Bitmap bitmap) {
+		return (long)bitmap.getRowBytes() * bitmap.getHeight();
+	}
+
+	/**
+	 * Reserves room in the budget for an image about to be decoded or created,
+	 * at the smallest sample size from minSampleSize to maxSampleSize that fits.
+	 * Checking and reserving are one step, so two threads decoding at once can't
+	 * both take the last of the room. If no sample size fits, the room is
+	 * reserved at maxSampleSize anyway and counted as over the limit.
+	 * Every reservation must be followed by {@link #settle(long, Bitmap)}.
+	 * @return The sample size reserved for.
+	 */
+	private static synchronized int reserve(int width, int height, Bitmap.Config config, int minSampleSize, int maxSampleSize) {
+		pollCollected();
+		int sampleSize = minSampleSize;
+		while (sampleSize < maxSampleSize && sUsed + sizeAt(width, height, config, sampleSize) > sLimit) {
+			sampleSize *= 2;
+		}
+		long bytes = sizeAt(width, height, config, sampleSize);
+		if (sUsed + bytes > sLimit) sOverLimit++;
+		if (sampleSize > minSampleSize) sDownsampled++;
+		sUsed += bytes;
+		if (sUsed > sPeak) sPeak = sUsed;
+		return sampleSize;
+	}
+
+	/**
+	 * Swaps a reservation for the memory the bitmap made really uses.
+	 * @param reserved The memory reserved in bytes.
+	 * @param bitmap The bitmap made, or null if it couldn't be made to give the room back.
+	 */
+	private static synchronized void settle(long reserved, Bitmap bitmap) {
+		sUsed = Math.max(sUsed - reserved + (bitmap != null ? sizeOf(bitmap) : 0), 0);
+		if (sUsed > sPeak) sPeak = sUsed;
+	}
+
+	/** Gets the memory an image will use once decoded at a sample size, in bytes. */
+	private static long sizeAt(int width, int height, Bitmap.Config config, int sampleSize) {
+		int bytesPerPixel = (config == Bitmap.Config.ARGB_8888) ? 4 : 2;
+		return (long)(width / sampleSize) * (height / sampleSize) * bytesPerPixel;
+	}
+
+	/**
+	 * Gives a bitmap's memory back to the budget. Call when the bitmap is
+	 * recycled, each bitmap must only be released once.
+	 * @param bitmap The bitmap, or null to do nothing.
+	 */
+	public static synchronized void release(Bitmap bitmap) {
+		if (bitmap == null) return;
+		sUsed = Math.max(sUsed - sizeOf(bitmap), 0);
+	}
+
+	/**
+	 * Gives a bitmap's memory back to the budget once it is collected. Call
+	 * instead of {@link #release(Bitmap)} for a bitmap no longer kept that
+	 * can't be recycled, because something may still be drawing from it.
+	 * Each bitmap must only be released once.
+	 * @param bitmap The bitmap, or null to do nothing.
+	 */
+	public static synchronized void releaseWhenUnused(Bitmap bitmap) {
+		if (bitmap == null) return;
+		Unused unused = new Unused(bitmap, sCollected);
+		sUnused.add(unused);
+		sUnusedSize += unused.size;
+	}
+
+	/** Gives back the memory of every bitmap given up that has been collected. Must hold the class lock. */
+	private static void pollCollected() {
+		Reference<? extends Bitmap> ref;
+		while ((ref = sCollected.poll()) != null) {
+			Unused unused = (Unused)ref;
+			if (!sUnused.remove(unused)) continue;
+			sUnusedSize -= unused.size;
+			sUsed = Math.max(sUsed - unused.size, 0);
+		}
+	}
+
+	/**
+	 * Creates an empty bitmap and charges it to the budget.
+	 * @param width The width of the bitmap.
+	 * @param height The height of the bitmap.
+	 * @param config The pixel format of the bitmap.
+	 * @return The bitmap.
+	 */
+	public static Bitmap createBitmap(int width, int height, Bitmap.Config config) {
+		reserve(width, height, config, 1, 1);
+		long reserved = sizeAt(width, height, config, 1);
+		Bitmap bitmap = null;
+		try {
+			bitmap = Bitmap.createBitmap(width, height, config);
+		} finally {
+			settle(reserved, bitmap);
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Decodes an image resource at full size, scaled for the screen density like
+	 * {@link BitmapFactory#decodeResource(Resources, int)}, and charges it to the
+	 * budget. Use for images whose size matters, such as card faces, since the
+	 * card size is taken from them.
+	 * @param res The resources to decode the image from.
+	 * @param id The image resource.
+	 * @param config The pixel format to decode to.
+	 * @return The image.
+	 */
+	public static Bitmap decodeResource(Resources res, int id, Bitmap.Config config) {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		options.inScaled = false;
+		BitmapFactory.decodeResource(res, id, options);
+		float scale = densityScale(res, id);
+		int width = Math.round(options.outWidth * scale);
+		int height = Math.round(options.outHeight * scale);
+
+		reserve(width, height, config, 1, 1);
+		long reserved = sizeAt(width, height, config, 1);
+		options = new BitmapFactory.Options();
+		options.inPreferredConfig = config;
+		Bitmap bitmap = null;
+		try {
+			bitmap = BitmapFactory.decodeResource(res, id, options);
+		} finally {
+			settle(reserved, bitmap);
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Decodes an image resource no larger than it is drawn, scaled for the
+	 * screen density like {@link BitmapFactory#decodeResource(Resources, int)},
+	 * and charges it to the budget. If the budget is full, the image is
+	 * decoded at a lower resolution.
+	 * @param res The resources to decode the image from.
+	 * @param id The image resource.
+	 * @param config The pixel format to decode to. Use {@link Bitmap.Config#RGB_565}
+	 * 			for images without transparency to use half the memory.
+	 * @param reqWidth The width the image is drawn at.
+	 * @param reqHeight The height the image is drawn at.
+	 * @return The image, never smaller than the size asked for unless the budget is full.
+	 */
+	public static Bitmap decodeResource(Resources res, int id, Bitmap.Config config, int reqWidth, int reqHeight) {
+		// Find the size the image would be decoded at, without decoding it
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		options.inScaled = false;
+		BitmapFactory.decodeResource(res, id, options);
+		float scale = densityScale(res, id);
+		int width = Math.round(options.outWidth * scale);
+		int height = Math.round(options.outHeight * scale);
+
+		// Skip pixels that would only be scaled away when drawn
+		int sampleSize = 1;
+		while (width / (sampleSize*2) >= reqWidth && height / (sampleSize*2) >= reqHeight) {
+			sampleSize *= 2;
+		}
+
+		// Lower the resolution further if there isn't room for the image
+		sampleSize = reserve(width, height, config, sampleSize, Math.max(sampleSize, MAX_SAMPLE_SIZE));
+		long reserved = sizeAt(width, height, config, sampleSize);
+
+		options = new BitmapFactory.Options();
+		options.inSampleSize = sampleSize;
+		options.inPreferredConfig = config;
+		Bitmap bitmap = null;
+		try {
+			bitmap = BitmapFactory.decodeResource(res, id, options);
+		} finally {
+			settle(reserved, bitmap);
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Decodes an image file and charges it to the budget. If the budget is
+	 * full, the image is decoded at a lower resolution, so compare its size
+	 * with {@link #decodeFileBounds(String)} to find how much lower.
+	 * @param path The path of the image file.
+	 * @param config The pixel format to decode to.
+	 * @return The image, or null if it could not be decoded.
+	 */
+	public static Bitmap decodeFile(String path, Bitmap.Config config) {
+		BitmapFactory.Options options = decodeFileBounds(path);
+		if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+		int sampleSize = reserve(options.outWidth, options.outHeight, config, 1, MAX_SAMPLE_SIZE);
+		long reserved = sizeAt(options.outWidth, options.outHeight, config, sampleSize);
+
+		options = new BitmapFactory.Options();
+		options.inSampleSize = sampleSize;
+		options.inPreferredConfig = config;
+		Bitmap bitmap = null;
+		try {
+			bitmap = BitmapFactory.decodeFile(path, options);
+		} finally {
+			settle(reserved, bitmap);
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Reads the size of an image file without decoding it.
+	 * @param path The path of the image file.
+	 * @return The options holding the full size in outWidth and outHeight,
+	 * 			which are -1 if the file can't be decoded.
+	 */
+	public static BitmapFactory.Options decodeFileBounds(String path) {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(path, options);
+		return options;
+	}
+
+	/** Gets the scale a resource is decoded at to match the screen density. */
+	private static float densityScale(Resources res, int id) {
+		TypedValue value = new TypedValue();
+		res.getValue(id, value, true);
+		int density = value.density;
+		if (density == TypedValue.DENSITY_NONE) return 1;
+		if (density == TypedValue.DENSITY_DEFAULT) density = DisplayMetrics.DENSITY_DEFAULT;
+		return (float)res.getDisplayMetrics().densityDpi / density;
+	}
+
+	/** Writes how much of the budget is used to the debug log. */
+	public static synchronized void logUsage() {
+		if (!Log.isLoggable(TAG, Log.DEBUG)) return;
+		pollCollected();
+		Log.d(TAG, "used " + sUsed/1024 + "KB of " + sLimit/1024 + "KB (peak " + sPeak/1024 + "KB, " + sUnusedSize/1024 + "KB waiting to be collected), " +
+				sDownsampled + " images downsampled, " + sOverLimit + " bitmaps over the limit");
+	}
+
+	/** A bitmap given up, with its size kept since it can't be asked once the bitmap is collected. */
+	private static class Unused extends PhantomReference<Bitmap> {
+		/** The memory used by the bitmap, in bytes. */
+		final long size;
+
+		Unused(Bitmap bitmap, ReferenceQueue<Bitmap> queue) {
+			super(bitmap, queue);
+			size = sizeOf(bitmap);
+		}
+	}
+}
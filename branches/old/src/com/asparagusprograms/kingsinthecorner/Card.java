@@ -20,12 +20,11 @@ package com.asparagusprograms.kingsinthecorner;
 import java.io.Serializable;
 
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
-import android.graphics.Matrix;
 import android.graphics.Paint;
 
+import com.asparagusprograms.kingsinthecorner.SpriteAtlas.Sprite;
+
 /**
    An object representing one of the 52 cards in a
    standard deck of playing cards.  Each card has a suit and
@@ -71,8 +70,16 @@ public class Card implements Serializable {
      */
     private transient int mCurrentRotation = 0;
     
-    /** The image for this card to drawn to a canvas. */
-    private transient Bitmap image;
+    /** The image for this card to drawn to a canvas, shared with every card showing the same face. */
+    private transient Sprite image;
+    
+    /** The width of this card's image after rotation. */
+    private transient int mRotatedWidth;
+    /** The height of this card's image after rotation. */
+    private transient int mRotatedHeight;
+    
+    /** The paint used to draw rotated images, filtered to match the old pre-rotated images. */
+    private static final Paint sRotatePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
     
     /**
      * Construct a card with the specified value and suit.
@@ -210,58 +217,80 @@ public class Card implements Serializable {
     	return false;
     }
     
+    /**
+     * Gets a copy of this card, with the same image, position and rotation,
+     * that can be drawn while this card keeps changing.
+     * @return A copy of this card.
+     */
+    public Card copy() {
+    	Card c = new Card(mValue, mSuit);
+    	c.mXPos = mXPos;
+    	c.mYPos = mYPos;
+    	c.mCurrentRotation = mCurrentRotation;
+    	c.image = image;
+    	c.mRotatedWidth = mRotatedWidth;
+    	c.mRotatedHeight = mRotatedHeight;
+    	return c;
+    }
+    
     /**
      * Gets the image associated with this card.
      * @return The image associated with this card.
      */
-    public Bitmap getImage() {
+    public Sprite getImage() {
     	return image;
     }
     
     /**
-     * Gets the width of this card's image.
-     * @return The width of this card's image.
+     * Gets the width of this card's image as drawn, including rotation.
+     * @return The width of the box around this card's rotated image.
      * 			If no image is set, returns 0.
      */
     public int getWidth() {
     	if (image == null) return 0;
     	
-    	return image.getWidth();
+    	return mRotatedWidth;
     }
     
     /**
-     * Gets the height of this card's image.
-     * @return The height of this card's image.
+     * Gets the height of this card's image as drawn, including rotation.
+     * @return The height of the box around this card's rotated image.
      * 			If no image is set, returns 0.
      */
     public int getHeight() {
     	if (image == null) return 0;
     	
-    	return image.getHeight();
+    	return mRotatedHeight;
     }
     
     /**
-     * Rotates this card's image.
+     * Rotates this card's image. The image itself is never changed,
+     * the rotation is applied to the canvas when the card is drawn,
+     * so changing the rotation does not allocate anything.
      * @param degrees The number of degrees to rotate this card's image.
-     * @param context The context used to get image resources if needed.
-     * @param style The style of card to use if needed.
      */
-    public void setRotate(int degrees, Context context, String style) {
-    	// Make sure there is an image and it actually needs rotated
-    	if (image == null || mCurrentRotation == degrees) return;
+    public void setRotate(int degrees) {
+    	if (mCurrentRotation == degrees) return;
     	
-    	// Reset the image to 0 rotation
-    	if (mCurrentRotation != 0) {
-    		setImage(context, style);
-    	}
+    	mCurrentRotation = degrees;
+    	updateRotatedSize();
+    }
+    
+    /** Updates the size of the box around this card's rotated image. */
+    private void updateRotatedSize() {
+    	if (image == null) return;
     	
-    	// Rotate the image to the given degrees
-    	if (degrees != 0) {
-    		Matrix m = new Matrix();
-        	m.postRotate(degrees);
-    		image = Bitmap.createBitmap(image, 0, 0, image.getWidth(), image.getHeight(), m, true);
+    	if (mCurrentRotation == 0) {
+    		mRotatedWidth = image.getWidth();
+    		mRotatedHeight = image.getHeight();
+    	} else {
+    		// Same size as Bitmap.createBitmap gives for a rotated image
+    		double radians = Math.toRadians(mCurrentRotation);
+    		double cos = Math.abs(Math.cos(radians));
+    		double sin = Math.abs(Math.sin(radians));
+    		mRotatedWidth = (int)Math.round(image.getWidth()*cos + image.getHeight()*sin);
+    		mRotatedHeight = (int)Math.round(image.getWidth()*sin + image.getHeight()*cos);
     	}
-    	mCurrentRotation = degrees;
     }
     
     /**
@@ -270,13 +299,10 @@ public class Card implements Serializable {
      * @param style The style of card to use.
      */
     public void setImage(Context context, String style) {
-    	if (style != null && style.equals("classic")) {
-    		setImageClassic(context);
-    	} else {
-    		setImageSimple(context);
-    	}
+    	image = CardImageCache.getFace(context, style, mSuit, mValue);
     	
     	mCurrentRotation = 0;
+    	updateRotatedSize();
     }
     
     /**
@@ -287,379 +313,32 @@ public class Card implements Serializable {
      * 					is not face up. If this is null, the card
      * 					will be drawn face up.
      */
-    public void draw(Canvas c, Paint paint, Bitmap cardBack) {
+    public void draw(Canvas c, Paint paint, Sprite cardBack) {
     	if (cardBack == null)
-    		c.drawBitmap(image, mXPos, mYPos, paint);
+    		drawAt(c, mXPos, mYPos, paint);
     	
     	else
-    		c.drawBitmap(cardBack, mXPos, mYPos, paint);
+    		cardBack.draw(c, mXPos, mYPos, paint);
     }
     
     /**
-     * Sets this card's image to the Simple card style.
-     * @param context The context used to get image resources.
+     * Draws this card's image, with its rotation, to a canvas.
+     * @param c The canvas to draw this card to.
+     * @param left The x-coordinate for the left side of the box around the rotated image.
+     * @param top The y-coordinate for the top of the box around the rotated image.
+     * @param paint The paint to use when drawing. May be null.
      */
-    private void setImageSimple(Context context) {
-		switch (mSuit) {
-		case Card.CLUBS:    
-			switch (mValue) {
-			case 1:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.c1);
-				break;
-			case 2:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.c2);
-				break;
-			case 3:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.c3);
-				break;
-			case 4:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.c4);
-				break;
-			case 5:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.c5);
-				break;
-			case 6:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.c6);
-				break;
-			case 7:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.c7);
-				break;
-			case 8:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.c8);
-				break;
-			case 9:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.c9);
-				break;
-			case 10:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.c10);
-				break;
-			case 11:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.c11);
-				break;
-			case 12:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.c12);
-				break;
-			case 13:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.c13);
-				break;
-			}
-			break;
-		case Card.DIAMONDS: 
-			switch (mValue) {
-			case 1:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.d1);
-				break;
-			case 2:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.d2);
-				break;
-			case 3:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.d3);
-				break;
-			case 4:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.d4);
-				break;
-			case 5:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.d5);
-				break;
-			case 6:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.d6);
-				break;
-			case 7:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.d7);
-				break;
-			case 8:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.d8);
-				break;
-			case 9:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.d9);
-				break;
-			case 10:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.d10);
-				break;
-			case 11:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.d11);
-				break;
-			case 12:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.d12);
-				break;
-			case 13:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.d13);
-				break;
-			}
-			break;
-		case Card.HEARTS:   
-			switch (mValue) {
-			case 1:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.h1);
-				break;
-			case 2:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.h2);
-				break;
-			case 3:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.h3);
-				break;
-			case 4:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.h4);
-				break;
-			case 5:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.h5);
-				break;
-			case 6:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.h6);
-				break;
-			case 7:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.h7);
-				break;
-			case 8:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.h8);
-				break;
-			case 9:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.h9);
-				break;
-			case 10:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.h10);
-				break;
-			case 11:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.h11);
-				break;
-			case 12:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.h12);
-				break;
-			case 13:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.h13);
-				break;
-			}
-			break;
-		case Card.SPADES:
-			switch (mValue) {
-			case 1:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.s1);
-				break;
-			case 2:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.s2);
-				break;
-			case 3:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.s3);
-				break;
-			case 4:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.s4);
-				break;
-			case 5:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.s5);
-				break;
-			case 6:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.s6);
-				break;
-			case 7:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.s7);
-				break;
-			case 8:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.s8);
-				break;
-			case 9:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.s9);
-				break;
-			case 10:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.s10);
-				break;
-			case 11:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.s11);
-				break;
-			case 12:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.s12);
-				break;
-			case 13:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.s13);
-				break;
-			}
-			break;
-		case 4: // Joker
-			image = BitmapFactory.decodeResource(context.getResources(), R.drawable.joker);
-			break;
-		}
+    public void drawAt(Canvas c, int left, int top, Paint paint) {
+    	if (mCurrentRotation == 0) {
+    		image.draw(c, left, top, paint);
+    		return;
+    	}
+    	
+    	// Rotate the canvas around the center of the box the rotated image fills
+    	c.save();
+    	c.translate(left + mRotatedWidth/2f, top + mRotatedHeight/2f);
+    	c.rotate(mCurrentRotation);
+    	image.draw(c, -image.getWidth()/2f, -image.getHeight()/2f, (paint != null) ? paint : sRotatePaint);
+    	c.restore();
     }
-    
-    /**
-     * Sets this card's image to the Classic card style.
-     * @param context The context used to get image resources.
-     */
-    private void setImageClassic(Context context) {
-		switch (mSuit) {
-		case Card.CLUBS:    
-			switch (mValue) {
-			case 1:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.c1c);
-				break;
-			case 2:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.c2c);
-				break;
-			case 3:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.c3c);
-				break;
-			case 4:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.c4c);
-				break;
-			case 5:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.c5c);
-				break;
-			case 6:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.c6c);
-				break;
-			case 7:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.c7c);
-				break;
-			case 8:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.c8c);
-				break;
-			case 9:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.c9c);
-				break;
-			case 10:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.c10c);
-				break;
-			case 11:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.c11c);
-				break;
-			case 12:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.c12c);
-				break;
-			case 13:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.c13c);
-				break;
-			}
-			break;
-		case Card.DIAMONDS: 
-			switch (mValue) {
-			case 1:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.d1c);
-				break;
-			case 2:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.d2c);
-				break;
-			case 3:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.d3c);
-				break;
-			case 4:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.d4c);
-				break;
-			case 5:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.d5c);
-				break;
-			case 6:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.d6c);
-				break;
-			case 7:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.d7c);
-				break;
-			case 8:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.d8c);
-				break;
-			case 9:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.d9c);
-				break;
-			case 10:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.d10c);
-				break;
-			case 11:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.d11c);
-				break;
-			case 12:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.d12c);
-				break;
-			case 13:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.d13c);
-				break;
-			}
-			break;
-		case Card.HEARTS:   
-			switch (mValue) {
-			case 1:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.h1c);
-				break;
-			case 2:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.h2c);
-				break;
-			case 3:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.h3c);
-				break;
-			case 4:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.h4c);
-				break;
-			case 5:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.h5c);
-				break;
-			case 6:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.h6c);
-				break;
-			case 7:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.h7c);
-				break;
-			case 8:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.h8c);
-				break;
-			case 9:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.h9c);
-				break;
-			case 10:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.h10c);
-				break;
-			case 11:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.h11c);
-				break;
-			case 12:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.h12c);
-				break;
-			case 13:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.h13c);
-				break;
-			}
-			break;
-		case Card.SPADES:
-			switch (mValue) {
-			case 1:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.s1c);
-				break;
-			case 2:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.s2c);
-				break;
-			case 3:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.s3c);
-				break;
-			case 4:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.s4c);
-				break;
-			case 5:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.s5c);
-				break;
-			case 6:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.s6c);
-				break;
-			case 7:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.s7c);
-				break;
-			case 8:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.s8c);
-				break;
-			case 9:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.s9c);
-				break;
-			case 10:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.s10c);
-				break;
-			case 11:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.s11c);
-				break;
-			case 12:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.s12c);
-				break;
-			case 13:
-				image = BitmapFactory.decodeResource(context.getResources(), R.drawable.s13c);
-				break;
-			}
-			break;
-		case 4: // Joker
-			image = BitmapFactory.decodeResource(context.getResources(), R.drawable.joker);
-			break;
-		}
-    }    
 }
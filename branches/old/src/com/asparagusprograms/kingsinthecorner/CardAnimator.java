@@ -0,0 +1,215 @@
+/**
+ * Copyright 2010,2011 Trevor Boyce
+ *
+ * This file is part of Kings in the Corner.
+ *
+ *    Kings in the Corner is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    Kings in the Corner is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with Kings in the Corner.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.asparagusprograms.kingsinthecorner;
+
+import android.graphics.Canvas;
+import android.graphics.Rect;
+
+/**
+ * Shows cards moving onto piles. Moves are always made right away, the
+ * animator only draws the moving card sliding from where it was to where
+ * it ended up, so game logic never waits for an animation.
+ * <p>
+ * While a card is moving, the pile it is moving onto is drawn as it was
+ * before the move (its cover) so the card doesn't show up there early.
+ * Motions are kept in a fixed pool and only advanced while drawing, and
+ * each frame drawn with a card moving asks for the next frame.
+ */
+public class CardAnimator {
+	/** The most cards that can be moving at once. More moves are shown without motion. */
+	private static final int POOL_SIZE = 8;
+
+	/** The motions, in use or not. */
+	private final Motion[] mPool = new Motion[POOL_SIZE];
+
+	/** Incremented each time a cover is added or removed, so the table layer knows to redraw. */
+	private int mVersion;
+
+	/** Counts motions in the order they were started. */
+	private long mSequence;
+
+	/** Constructs an animator with no cards moving. */
+	public CardAnimator() {
+		for (int i = 0; i < POOL_SIZE; i++) {
+			mPool[i] = new Motion();
+		}
+	}
+
+	/**
+	 * Starts showing a card moving onto a pile. Call after the move is made
+	 * and before the game's new snapshot is published.
+	 * @param card A copy of the card that moved. Its position and rotation are changed while it is drawn.
+	 * @param fromLeft The left side of the box around the card where it started.
+	 * @param fromTop The top of the box around the card where it started.
+	 * @param fromRotation The rotation of the card where it started.
+	 * @param toLeft The left side of the box around the card on the pile.
+	 * @param toTop The top of the box around the card on the pile.
+	 * @param toRotation The rotation of the card on the pile.
+	 * @param side True if the pile is a side pile, false if it is a corner pile.
+	 * @param index The index of the pile.
+	 * @param cover A copy of the pile from before the move, drawn until the card arrives.
+	 * @param duration How long the card takes to move, in milliseconds.
+	 */
+	public synchronized void animate(Card card, int fromLeft, int fromTop, int fromRotation,
+			int toLeft, int toTop, int toRotation, boolean side, int index, Pile cover, long duration) {
+		Motion m = obtain();
+		if (m == null) return;
+
+		// Move the center of the card, since the box around it changes size as it turns
+		card.setRotate(fromRotation);
+		m.fromX = fromLeft + card.getWidth()/2f;
+		m.fromY = fromTop + card.getHeight()/2f;
+		card.setRotate(toRotation);
+		m.toX = toLeft + card.getWidth()/2f;
+		m.toY = toTop + card.getHeight()/2f;
+
+		// Everything the card passes over needs redrawing while it moves
+		int size = Math.max(card.getWidth(), card.getHeight());
+		m.bounds.set((int)Math.min(m.fromX, m.toX) - size, (int)Math.min(m.fromY, m.toY) - size,
+				(int)Math.max(m.fromX, m.toX) + size, (int)Math.max(m.fromY, m.toY) + size);
+
+		m.card = card;
+		m.fromRotation = fromRotation;
+		m.toRotation = toRotation;
+		m.side = side;
+		m.index = index;
+		m.cover = cover;
+		m.duration = duration;
+		m.start = -1;
+		m.progress = 0;
+		m.active = true;
+		mVersion++;
+	}
+
+	/**
+	 * Gets the pile to draw in place of a pile a card is moving onto.
+	 * @param side True for a side pile, false for a corner pile.
+	 * @param index The index of the pile.
+	 * @return The pile as it was before the card moved, or null to draw the pile as it is.
+	 */
+	public synchronized Pile getCover(boolean side, int index) {
+		// The first motion onto the pile has the cover from before any of them
+		Pile cover = null;
+		long first = Long.MAX_VALUE;
+		for (int i = 0; i < POOL_SIZE; i++) {
+			Motion m = mPool[i];
+			if (m.active && m.side == side && m.index == index && m.sequence < first) {
+				cover = m.cover;
+				first = m.sequence;
+			}
+		}
+		return cover;
+	}
+
+	/**
+	 * Gets a number that changes whenever a cover is added or removed.
+	 * @return The version of the covers.
+	 */
+	public synchronized int getVersion() {
+		return mVersion;
+	}
+
+	/**
+	 * Starts motions that haven't been drawn yet and ends motions that have
+	 * finished, so the table layer can be drawn with the right covers.
+	 * Must only be called by the thread drawing the game, before each frame.
+	 * @param now The time of the frame, in milliseconds of {@link android.os.SystemClock#uptimeMillis()}.
+	 */
+	public synchronized void update(long now) {
+		for (int i = 0; i < POOL_SIZE; i++) {
+			Motion m = mPool[i];
+			if (!m.active) continue;
+			// Motions start on the first frame they are drawn, so a late frame doesn't skip them
+			if (m.start < 0) m.start = now;
+			m.progress = (m.duration > 0) ? (float)(now - m.start) / m.duration : 1;
+			if (m.progress >= 1) {
+				m.recycle();
+				mVersion++;
+			}
+		}
+	}
+
+	/**
+	 * Draws each moving card where it was at the last {@link #update(long)}.
+	 * Must only be called by the thread drawing the game.
+	 * @param c The canvas to draw to.
+	 * @param dirty Set to the area that needs to be drawn again next frame. Empty if nothing is moving.
+	 */
+	public synchronized void draw(Canvas c, Rect dirty) {
+		dirty.setEmpty();
+		for (int i = 0; i < POOL_SIZE; i++) {
+			Motion m = mPool[i];
+			if (!m.active) continue;
+
+			// Slow down toward the end of the move
+			float t = 1 - (1-m.progress)*(1-m.progress);
+			m.card.setRotate(Math.round(m.fromRotation + (m.toRotation - m.fromRotation)*t));
+			float x = m.fromX + (m.toX - m.fromX)*t;
+			float y = m.fromY + (m.toY - m.fromY)*t;
+			m.card.drawAt(c, (int)(x - m.card.getWidth()/2f), (int)(y - m.card.getHeight()/2f), null);
+			dirty.union(m.bounds);
+		}
+	}
+
+	/** Stops every motion. */
+	public synchronized void clear() {
+		for (int i = 0; i < POOL_SIZE; i++) {
+			mPool[i].recycle();
+		}
+		mVersion++;
+	}
+
+	/** Gets a motion that isn't in use, or null if they all are. */
+	private Motion obtain() {
+		for (int i = 0; i < POOL_SIZE; i++) {
+			if (!mPool[i].active) {
+				mPool[i].sequence = ++mSequence;
+				return mPool[i];
+			}
+		}
+		return null;
+	}
+
+	/** A card moving onto a pile. */
+	private static class Motion {
+		boolean active;
+		Card card;
+		float fromX, fromY, toX, toY;
+		int fromRotation, toRotation;
+		boolean side;
+		int index;
+		Pile cover;
+		long start;
+		long duration;
+		/** How far along the move the card is, from 0 to 1. */
+		float progress;
+		/** The order this motion was started in. */
+		long sequence;
+		/** The area the card moves through. */
+		final Rect bounds = new Rect();
+
+		/** Lets go of the card and pile so the motion can be reused. */
+		void recycle() {
+			active = false;
+			card = null;
+			cover = null;
+		}
+	}
+}
@@ -0,0 +1,286 @@
+/**
+ * This file is part of Kings in the Corner.
+ *
+ *    Kings in the Corner is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    Kings in the Corner is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with Kings in the Corner.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.asparagusprograms.kingsinthecorner;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import android.content.Context;
+
+import com.asparagusprograms.kingsinthecorner.SpriteAtlas.Sprite;
+
+/**
+ * A process-wide cache of the game's images. All the card faces for
+ * a style are packed into one {@link SpriteAtlas}, and the card backs,
+ * glows and player badges are packed into another. Each atlas is loaded
+ * at most once and its sprites are shared by every card, across games.
+ * Atlases are charged to the {@link BitmapBudget}, and least recently
+ * used atlases are evicted to make room before an atlas is loaded and
+ * whenever the budget is full.
+ */
+public class CardImageCache {
+	/** Index of the Simple card style. */
+	private static final int STYLE_SIMPLE = 0;
+	/** Index of the Classic card style. */
+	private static final int STYLE_CLASSIC = 1;
+	
+	/** The suit used for the joker. */
+	private static final int JOKER = 4;
+	
+	/** Card back, glow and player badge sprites in the table atlas. */
+	public static final int BACK_AP = 0,
+							BACK_BLUE = 1,
+							BACK_FUSCIA = 2,
+							BACK_GRAY = 3,
+							BACK_GREEN = 4,
+							BACK_ORANGE = 5,
+							BACK_RED = 6,
+							BACK_YELLOW = 7,
+							BACK_CLASSIC = 8,
+							GLOW = 9,
+							GLOW_SIDE = 10,
+							GLOW_CORNER1 = 11,
+							GLOW_CORNER2 = 12,
+							PLAYER1 = 13;
+	
+	/** Table atlas resources, in the order of their sprites. */
+	private static final int[] TABLE_IMAGES = {
+			R.drawable.card_back, R.drawable.cb1_blue, R.drawable.cb1_fuscia, R.drawable.cb1_gray,
+			R.drawable.cb1_green, R.drawable.cb1_orange, R.drawable.cb1_red, R.drawable.cb1_yellow,
+			R.drawable.card_backc,
+			R.drawable.glow, R.drawable.glow_side, R.drawable.glow_corner1, R.drawable.glow_corner2,
+			R.drawable.player1, R.drawable.player2, R.drawable.player3, R.drawable.player4
+	};
+	
+	/** The name the table atlas is saved under. */
+	private static final String TABLE_ATLAS = "atlas_table";
+	
+	/** Simple card face resources, by suit then value. */
+	private static final int[][] SIMPLE_FACES = {
+			{R.drawable.s1, R.drawable.s2, R.drawable.s3, R.drawable.s4, R.drawable.s5, R.drawable.s6, R.drawable.s7, R.drawable.s8, R.drawable.s9, R.drawable.s10, R.drawable.s11, R.drawable.s12, R.drawable.s13}, // SPADES
+			{R.drawable.h1, R.drawable.h2, R.drawable.h3, R.drawable.h4, R.drawable.h5, R.drawable.h6, R.drawable.h7, R.drawable.h8, R.drawable.h9, R.drawable.h10, R.drawable.h11, R.drawable.h12, R.drawable.h13}, // HEARTS
+			{R.drawable.d1, R.drawable.d2, R.drawable.d3, R.drawable.d4, R.drawable.d5, R.drawable.d6, R.drawable.d7, R.drawable.d8, R.drawable.d9, R.drawable.d10, R.drawable.d11, R.drawable.d12, R.drawable.d13}, // DIAMONDS
+			{R.drawable.c1, R.drawable.c2, R.drawable.c3, R.drawable.c4, R.drawable.c5, R.drawable.c6, R.drawable.c7, R.drawable.c8, R.drawable.c9, R.drawable.c10, R.drawable.c11, R.drawable.c12, R.drawable.c13}  // CLUBS
+	};
+	
+	/** Classic card face resources, by suit then value. */
+	private static final int[][] CLASSIC_FACES = {
+			{R.drawable.s1c, R.drawable.s2c, R.drawable.s3c, R.drawable.s4c, R.drawable.s5c, R.drawable.s6c, R.drawable.s7c, R.drawable.s8c, R.drawable.s9c, R.drawable.s10c, R.drawable.s11c, R.drawable.s12c, R.drawable.s13c}, // SPADES
+			{R.drawable.h1c, R.drawable.h2c, R.drawable.h3c, R.drawable.h4c, R.drawable.h5c, R.drawable.h6c, R.drawable.h7c, R.drawable.h8c, R.drawable.h9c, R.drawable.h10c, R.drawable.h11c, R.drawable.h12c, R.drawable.h13c}, // HEARTS
+			{R.drawable.d1c, R.drawable.d2c, R.drawable.d3c, R.drawable.d4c, R.drawable.d5c, R.drawable.d6c, R.drawable.d7c, R.drawable.d8c, R.drawable.d9c, R.drawable.d10c, R.drawable.d11c, R.drawable.d12c, R.drawable.d13c}, // DIAMONDS
+			{R.drawable.c1c, R.drawable.c2c, R.drawable.c3c, R.drawable.c4c, R.drawable.c5c, R.drawable.c6c, R.drawable.c7c, R.drawable.c8c, R.drawable.c9c, R.drawable.c10c, R.drawable.c11c, R.drawable.c12c, R.drawable.c13c}  // CLUBS
+	};
+	
+	/** Simple face atlas resources, in the order of their sprites. */
+	private static final int[] SIMPLE_IMAGES = flatten(SIMPLE_FACES);
+	
+	/** Classic face atlas resources, in the order of their sprites. */
+	private static final int[] CLASSIC_IMAGES = flatten(CLASSIC_FACES);
+	
+	/** The cached atlases by name, least recently used first. */
+	private static final LinkedHashMap<String, SpriteAtlas> sAtlases = new LinkedHashMap<String, SpriteAtlas>(4, 0.75f, true);
+	
+	/** Atlases being loaded by name, so other threads wait for the same load. Guarded by {@link #sAtlases}. */
+	private static final HashMap<String, FutureTask<SpriteAtlas>> sLoading = new HashMap<String, FutureTask<SpriteAtlas>>();
+	
+	/** The memory used by the cached atlases, in bytes. */
+	private static long sSize;
+	
+	private CardImageCache() {}
+	
+	/**
+	 * Gets the image for a card face, loading the style's atlas if it is not cached.
+	 * @param context The context used to get image resources.
+	 * @param style The style of card to use.
+	 * @param suit The suit of the card.
+	 * @param value The value of the card.
+	 * @return The image for the card face, or null if there is no such face.
+	 */
+	public static Sprite getFace(Context context, String style, int suit, int value) {
+		int index;
+		if (suit == JOKER) index = 4*13;
+		else if (suit < 0 || suit > JOKER || value < 1 || value > 13) return null;
+		else index = suit*13 + value-1;
+		
+		boolean classic = (style != null && style.equals("classic"));
+		return getAtlas(context, classic ? STYLE_CLASSIC : STYLE_SIMPLE).getSprite(index);
+	}
+	
+	/**
+	 * Gets a card back, glow or player badge image, loading the table atlas if it is not cached.
+	 * @param context The context used to get image resources.
+	 * @param sprite One of the sprite constants, such as {@link #BACK_AP}.
+	 * For player badges, add the player's index to {@link #PLAYER1}.
+	 * @return The image.
+	 */
+	public static Sprite getTableSprite(Context context, int sprite) {
+		return getAtlas(context, TABLE_ATLAS, TABLE_IMAGES).getSprite(sprite);
+	}
+	
+	/**
+	 * Loads the card backs, glows and player badges if they are not cached.
+	 * @param context The context used to get image resources.
+	 */
+	public static void preloadTable(Context context) {
+		getAtlas(context, TABLE_ATLAS, TABLE_IMAGES);
+	}
+	
+	/**
+	 * Loads the card faces for a style if they are not cached.
+	 * @param context The context used to get image resources.
+	 * @param style The style of card to load.
+	 */
+	public static void preloadFaces(Context context, String style) {
+		boolean classic = (style != null && style.equals("classic"));
+		getAtlas(context, classic ? STYLE_CLASSIC : STYLE_SIMPLE);
+	}
+	
+	/**
+	 * Gets the memory used by the cached atlases.
+	 * @return The size of the cache in bytes.
+	 */
+	public static long getSize() {
+		synchronized (sAtlases) {
+			return sSize;
+		}
+	}
+	
+	/** Removes all atlases from the cache. */
+	public static void clear() {
+		synchronized (sAtlases) {
+			for (SpriteAtlas atlas : sAtlases.values()) {
+				atlas.release();
+			}
+			sAtlases.clear();
+			sSize = 0;
+		}
+	}
+	
+	/** Gets the face atlas for a card style. */
+	private static SpriteAtlas getAtlas(Context context, int styleIndex) {
+		if (styleIndex == STYLE_CLASSIC) {
+			return getAtlas(context, "atlas_classic", CLASSIC_IMAGES);
+		} else {
+			return getAtlas(context, "atlas_simple", SIMPLE_IMAGES);
+		}
+	}
+	
+	/**
+	 * Gets an atlas, loading it if it is not cached. Each atlas is only ever
+	 * loaded by one thread, and any other thread asking for it waits for that
+	 * load. The cache isn't locked while loading, so other atlases can be got.
+	 */
+	private static SpriteAtlas getAtlas(Context context, final String name, final int[] ids) {
+		final Context app = context.getApplicationContext();
+		FutureTask<SpriteAtlas> load;
+		boolean loader = false;
+		synchronized (sAtlases) {
+			SpriteAtlas atlas = sAtlases.get(name);
+			if (atlas != null) return atlas;
+			
+			load = sLoading.get(name);
+			if (load == null) {
+				load = new FutureTask<SpriteAtlas>(new Callable<SpriteAtlas>() {
+					public SpriteAtlas call() {
+						return SpriteAtlas.load(app, name, ids);
+					}
+				});
+				sLoading.put(name, load);
+				loader = true;
+			}
+		}
+		
+		if (!loader) return getLoaded(load);
+		// Evict before decoding, so the atlas can be loaded at full resolution if evicting makes room
+		long needed = SpriteAtlas.getSavedByteCount(app, name);
+		synchronized (sAtlases) {
+			trimToSize(needed, 0);
+		}
+		load.run();
+		synchronized (sAtlases) {
+			sLoading.remove(name);
+			SpriteAtlas atlas = getLoaded(load);
+			sAtlases.put(name, atlas);
+			sSize += atlas.getByteCount();
+			// Always keep the newest atlas, even if it is bigger than the whole budget
+			trimToSize(0, 1);
+			return atlas;
+		}
+	}
+	
+	/**
+	 * Waits for an atlas to finish loading.
+	 * @param load The load.
+	 * @return The atlas.
+	 * @throws RuntimeException or Error if the load failed, as thrown by the load.
+	 */
+	private static SpriteAtlas getLoaded(FutureTask<SpriteAtlas> load) {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return load.get();
+				} catch (InterruptedException e) {
+					// Finish waiting, the atlas is needed to draw
+					interrupted = true;
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+					if (cause instanceof Error) throw (Error)cause;
+					throw new RuntimeException(cause);
+				}
+			}
+		} finally {
+			if (interrupted) Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Gets the face resources for a style in atlas order, suit by suit with the joker last.
+	 */
+	private static int[] flatten(int[][] faces) {
+		int[] ids = new int[4*13 + 1];
+		for (int suit = 0; suit < 4; suit++) {
+			System.arraycopy(faces[suit], 0, ids, suit*13, 13);
+		}
+		ids[4*13] = R.drawable.joker;
+		return ids;
+	}
+	
+	/**
+	 * Evicts the least recently used atlases until the bitmap budget will have
+	 * room once evicted atlases are collected. Must hold the cache lock.
+	 * @param bytes The room needed in bytes, or 0 to only bring the budget back under.
+	 * @param keep The number of most recently used atlases never evicted.
+	 */
+	private static void trimToSize(long bytes, int keep) {
+		Iterator<Map.Entry<String, SpriteAtlas>> it = sAtlases.entrySet().iterator();
+		while (!BitmapBudget.fitsWhenCollected(bytes) && sAtlases.size() > keep && it.hasNext()) {
+			SpriteAtlas eldest = it.next().getValue();
+			it.remove();
+			// Cards may still be drawing from the evicted atlas, so it is left for the garbage collector
+			eldest.release();
+			sSize -= eldest.getByteCount();
+		}
+	}
+}
@@ -0,0 +1,258 @@
+/**
+ * Copyright 2010,2011 Trevor Boyce
+ * 
+ * This file is part of Kings in the Corner.
+ *
+ *    Kings in the Corner is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    Kings in the Corner is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with Kings in the Corner.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.asparagusprograms.kingsinthecorner;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.os.SystemClock;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+import android.view.WindowManager;
+
+/**
+ * Draws the game on its own thread instead of the UI thread, so
+ * touch events are never held up by drawing. Redraw requests are
+ * collected and drawn together at most once per display refresh,
+ * and only the area that changed is redrawn.
+ * <p>
+ * The game is drawn from the {@link GameEngine}'s newest snapshot,
+ * so the drawing thread never needs to lock the game.
+ * @see CardTableView
+ */
+public class CardTableSurfaceView extends SurfaceView implements SurfaceHolder.Callback, GameTable {
+	/** The frame time used if the display doesn't report its refresh rate, in milliseconds. */
+	private static final long DEFAULT_FRAME_MILLIS = 16;
+	
+	/** The game engine used to actually draw the game. */
+	private GameEngine mGameEngine;
+	
+	/** The thread drawing the game, or null when there is no surface. */
+	private RenderThread mRenderThread;
+	
+	/** The time between display refreshes, in milliseconds. */
+	private final long mFrameMillis;
+	
+	/** The area waiting to be redrawn. Guarded by itself. */
+	private final Rect mDirty = new Rect();
+	
+	/** The size of the surface. Only changed while holding {@link #mDirty}. */
+	private int mSurfaceWidth, mSurfaceHeight;
+	
+	/**
+	 * Constructs a new {@link CardTableSurfaceView}.
+	 * @param context The context associated with this view.
+	 */
+	public CardTableSurfaceView(Context context) {
+		super(context);
+		mFrameMillis = frameMillis(context);
+		getHolder().addCallback(this);
+	}
+	
+	/**
+	 * Constructs a new {@link CardTableSurfaceView}.
+	 * @param context The context associated with this view.
+	 * @param attrs The attribute set given to this view.
+	 */
+	public CardTableSurfaceView(Context context, AttributeSet attrs) {
+		super(context, attrs);
+		mFrameMillis = frameMillis(context);
+		getHolder().addCallback(this);
+	}
+	
+	/** Gets the time between refreshes of the default display. */
+	private static long frameMillis(Context context) {
+		WindowManager wm = (WindowManager)context.getSystemService(Context.WINDOW_SERVICE);
+		float rate = wm.getDefaultDisplay().getRefreshRate();
+		if (rate < 1) return DEFAULT_FRAME_MILLIS;
+		return Math.max(1, (long)(1000 / rate));
+	}
+	
+	/**
+	 * Sets the game engine used to draw the game.
+	 * @param ge The game engine to use to draw the game.
+	 */
+	public void setGameEngine(GameEngine ge) {
+		mGameEngine = ge;
+		// Otherwise the game is laid out when the surface gets its size
+		if (getWidth() > 0) ge.onSizeChanged(getWidth(), getHeight());
+	}
+	
+	/**
+	 * If a game engine is set, this will call the
+	 * {@link GameEngine#onTouchEvent(MotionEvent)} method.
+	 * @param event The motion event.
+	 * @return The value returned from {@link GameEngine#onTouchEvent(MotionEvent)}.
+	 * 			If no game engine is set, returns false.
+	 */
+	@Override
+	public boolean onTouchEvent(MotionEvent event) {
+		if (mGameEngine == null) {
+			return false;
+		}
+		return mGameEngine.onTouchEvent(event);
+	}
+	
+	/**
+	 * Gets the current width of this view.
+	 * @return The current width of this view.
+	 */
+	public int getViewWidth() {
+		return this.getWidth();
+	}
+	
+	/**
+	 * Gets the current height of this view.
+	 * @return The current height of this view.
+	 */
+	public int getViewHeight() {
+		return this.getHeight();
+	}
+	
+	/** Redraws the whole surface on the drawing thread. */
+	@Override
+	public void postInvalidate() {
+		synchronized (mDirty) {
+			requestFrame(0, 0, mSurfaceWidth, mSurfaceHeight);
+		}
+	}
+	
+	/** Redraws part of the surface on the drawing thread. */
+	@Override
+	public void postInvalidate(int left, int top, int right, int bottom) {
+		synchronized (mDirty) {
+			requestFrame(left, top, right, bottom);
+		}
+	}
+	
+	/**
+	 * Adds an area to be redrawn and wakes the drawing thread. Until the game
+	 * has been laid out the surface is left black, and the game asks for a frame
+	 * itself once it is. Must hold {@link #mDirty}.
+	 */
+	private void requestFrame(int left, int top, int right, int bottom) {
+		mDirty.union(left, top, right, bottom);
+		mDirty.notify();
+	}
+	
+	@Override
+	public void surfaceCreated(SurfaceHolder holder) {
+		mRenderThread = new RenderThread(holder);
+		mRenderThread.start();
+	}
+	
+	@Override
+	public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+		synchronized (mDirty) {
+			mSurfaceWidth = width;
+			mSurfaceHeight = height;
+		}
+		if (mGameEngine != null) mGameEngine.onSizeChanged(width, height);
+		postInvalidate();
+	}
+	
+	@Override
+	public void surfaceDestroyed(SurfaceHolder holder) {
+		// The surface can't be used once this returns, so wait for the thread to stop
+		mRenderThread.quit();
+		boolean retry = true;
+		while (retry) {
+			try {
+				mRenderThread.join();
+				retry = false;
+			} catch (InterruptedException e) {}
+		}
+		mRenderThread = null;
+	}
+	
+	/**
+	 * Waits for areas to be redrawn and draws them, no more than once
+	 * per display refresh. Requests made while waiting for the next
+	 * refresh are drawn together in one frame.
+	 */
+	private class RenderThread extends Thread {
+		/** The surface to draw to. */
+		private final SurfaceHolder mHolder;
+		/** The area being drawn this frame. */
+		private final Rect mFrame = new Rect();
+		/** Set to false to stop the thread. */
+		private volatile boolean mRunning = true;
+		
+		RenderThread(SurfaceHolder holder) {
+			super("CardTableRenderer");
+			mHolder = holder;
+		}
+		
+		/** Stops the thread after the frame being drawn, if any. */
+		void quit() {
+			mRunning = false;
+			synchronized (mDirty) {
+				mDirty.notify();
+			}
+		}
+		
+		@Override
+		public void run() {
+			long lastFrame = 0;
+			while (mRunning) {
+				// Wait for something to redraw
+				synchronized (mDirty) {
+					while (mRunning && mDirty.isEmpty()) {
+						try {
+							mDirty.wait();
+						} catch (InterruptedException e) {}
+					}
+				}
+				if (!mRunning) return;
+				
+				// Wait for the next refresh, collecting any other requests until then
+				long wait = lastFrame + mFrameMillis - SystemClock.uptimeMillis();
+				if (wait > 0) {
+					try {
+						Thread.sleep(wait);
+					} catch (InterruptedException e) {}
+				}
+				
+				synchronized (mDirty) {
+					mFrame.set(mDirty);
+					mDirty.setEmpty();
+				}
+				lastFrame = SystemClock.uptimeMillis();
+				drawFrame();
+			}
+		}
+		
+		/** Draws the area in {@link #mFrame} to the surface. */
+		private void drawFrame() {
+			// Everything outside the locked area keeps what was drawn last frame
+			Canvas c = mHolder.lockCanvas(mFrame);
+			if (c == null) return;
+			try {
+				// The game covers the whole surface once it is ready to be drawn
+				if (mGameEngine == null || !mGameEngine.drawFrame(c)) c.drawColor(Color.BLACK);
+			} finally {
+				mHolder.unlockCanvasAndPost(c);
+			}
+		}
+	}
+}
@@ -25,7 +25,11 @@ import android.util.AttributeSet;
 import android.view.MotionEvent;
 import android.view.View;
 
-public class CardTableView extends View {
+/**
+ * Draws the game on the UI thread as a normal view.
+ * @see CardTableSurfaceView
+ */
+public class CardTableView extends View implements GameTable {
 	// Global variables
 	
 	/** The game engine used to actually draw the game. */
@@ -55,6 +59,16 @@ public class CardTableView extends View {
 	 */
 	public void setGameEngine(GameEngine ge) {
 		mGameEngine = ge;
+		if (getWidth() > 0) ge.onSizeChanged(getWidth(), getHeight());
+	}
+
+	/** Lays the game out again whenever this view changes size. */
+	@Override
+	protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+		super.onSizeChanged(w, h, oldw, oldh);
+		if (mGameEngine != null) {
+			mGameEngine.onSizeChanged(w, h);
+		}
 	}
 
 	/** 
@@ -19,8 +19,7 @@
 
 package com.asparagusprograms.kingsinthecorner;
 
-import java.util.Observable;
-import java.util.Observer;
+import java.util.List;
 
 import android.app.Activity;
 import android.app.AlertDialog;
@@ -29,8 +28,8 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.os.Handler;
 import android.preference.PreferenceManager;
-import android.util.DisplayMetrics;
 import android.view.KeyEvent;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -43,7 +42,7 @@ import android.widget.Toast;
  * to set up a new game or restore a saved game. It also handles button
  * presses, menus, dialogs, and pausing, resuming, starting, and ending games.
  */
-public class GameActivity extends Activity implements Observer {
+public class GameActivity extends Activity implements GameEventBus.Listener {
 	/** The {@link GameEngine} used for the game's functions and drawing. */
 	private GameEngine mGameEngine;
 	
@@ -76,29 +75,24 @@ public class GameActivity extends Activity implements Observer {
 		// Initialize variables
 		mPrefs = PreferenceManager.getDefaultSharedPreferences(getBaseContext());
 		mFirstYourTurn = true;
-		// Initialize the CardTableView
-		setContentView(R.layout.table);
-		CardTableView table = (CardTableView)this.findViewById(R.id.Table);
-		table.setFocusableInTouchMode(true);
+		// Images are normally loaded from the menu already, the game loop waits for any still loading
+		AssetLoader.preload(this);
+		// Initialize the card table, drawn on its own thread if chosen
+		if (mPrefs.getBoolean(getResources().getString(R.string.pref_key_surfaceRenderer), false)) {
+			setContentView(R.layout.table_surface);
+		} else {
+			setContentView(R.layout.table);
+		}
+		GameTable table = (GameTable)this.findViewById(R.id.Table);
+		this.findViewById(R.id.Table).setFocusableInTouchMode(true);
 		// Creates the game engine
 		mNumPlayers = getIntent().getExtras().getInt(getResources().getString(R.string.extras_players));
 		mGameEngine = new GameEngine(this, mNumPlayers, table);
-		mGameEngine.addObserver(this);
-		DisplayMetrics metrics = new DisplayMetrics();
-		getWindowManager().getDefaultDisplay().getMetrics(metrics);
-		mGameEngine.screenHeight(metrics.heightPixels);	
+		// Game events are handled on the UI thread
+		mGameEngine.addListener(this, GameEvent.TURN_STARTED | GameEvent.DECK_EMPTY | GameEvent.GAME_WON | GameEvent.GAME_STARTED, new Handler());
 		table.setGameEngine(mGameEngine);
-		//Start a new game or restore a saved one
-		if (mGameEngine.restore()) {
-			showToast(getResources().getString(R.string.toast_gameRestored));
-			if (mGameEngine.turn() == 0) {showToast(getResources().getString(R.string.toast_yourTurn)); mFirstYourTurn = false;}
-		} else {
-			if (mPrefs.getBoolean(getResources().getString(R.string.pref_key_firstGame), true)) {
-				showDialog(Main.FIRST_DIAG);
-				mGameEngine.firstGame();
-			}
-			mGameEngine.newGame();
-		}
+		//Start a new game or restore a saved one, which is told to onGameEvents
+		mGameEngine.restoreOrNewGame();
 		mGameEngine.inGame(true);
 	}
 	
@@ -125,6 +119,8 @@ public class GameActivity extends Activity implements Observer {
 	@Override
 	protected void onPause() {
 		mGameEngine.pause();
+		BitmapBudget.logUsage();
+		InputLatency.dump(this);
 		super.onPause();
 	}
 	
@@ -134,6 +130,13 @@ public class GameActivity extends Activity implements Observer {
 		super.finish();
 	}
 	
+	@Override
+	protected void onDestroy() {
+		// Anything still waiting on the game loop, such as saving, is done first
+		mGameEngine.quit();
+		super.onDestroy();
+	}
+	
 	/**
 	 * Shows a toast with a given message and short length.
 	 * @param message The message to display.
@@ -346,43 +349,37 @@ public class GameActivity extends Activity implements Observer {
 	}
 
 	@Override
-	public void update(Observable observable, Object data) {
-		if (observable == mGameEngine) {
-			if (mGameEngine.winner() == -1) {
-				if (mGameEngine.turn() >= 0) {
-					if ((mGameEngine.isSinglePlayer() && mGameEngine.turn() == 0 && ((mPrefs.getInt(getResources().getString(R.string.pref_key_computerDelay), 1000) > 100) || mFirstYourTurn))) {
-						mFirstYourTurn = false;
-						runOnUiThread(new Runnable() {
-							@Override
-							public void run() {
-								showToast(getResources().getString(R.string.toast_yourTurn));
-							}
-						});
-					} else if (!mGameEngine.isSinglePlayer()) {
-						runOnUiThread(new Runnable() {
-							@Override
-							public void run() {
-								showDialog(Main.TURN_DIAG);
-							}
-						});
-					}
+	public void onGameEvents(List<GameEvent> events) {
+		for (int i = 0; i < events.size(); i++) {
+			GameEvent event = events.get(i);
+			switch (event.type) {
+			case GameEvent.TURN_STARTED:
+				int player = ((GameEvent.TurnStarted)event).player;
+				if ((mGameEngine.isSinglePlayer() && player == 0 && ((mPrefs.getInt(getResources().getString(R.string.pref_key_computerDelay), 1000) > 100) || mFirstYourTurn))) {
+					mFirstYourTurn = false;
+					showToast(getResources().getString(R.string.toast_yourTurn));
+				} else if (!mGameEngine.isSinglePlayer()) {
+					showDialog(Main.TURN_DIAG);
 				}
-				if (mGameEngine.warnEmpty()) {
-					runOnUiThread(new Runnable() {
-						@Override
-						public void run() {
-							showDialog(Main.NOCARDS_DIAG);
-						}
-					});
+				break;
+			case GameEvent.DECK_EMPTY:
+				if (mPrefs.getBoolean(getResources().getString(R.string.pref_key_emptyDeckWarning), true)) {
+					showDialog(Main.NOCARDS_DIAG);
 				}
-			} else {
-				runOnUiThread(new Runnable() {
-					@Override
-					public void run() {
-						showDialog(Main.WIN_DIAG);
-					}
-				});
+				break;
+			case GameEvent.GAME_WON:
+				showDialog(Main.WIN_DIAG);
+				break;
+			case GameEvent.GAME_STARTED:
+				if (((GameEvent.GameStarted)event).restored) {
+					showToast(getResources().getString(R.string.toast_gameRestored));
+					if (mGameEngine.turn() == 0) {showToast(getResources().getString(R.string.toast_yourTurn)); mFirstYourTurn = false;}
+				} else if (mPrefs.getBoolean(getResources().getString(R.string.pref_key_firstGame), true)) {
+					showDialog(Main.FIRST_DIAG);
+					mGameEngine.firstGame();
+				}
+				break;
 			}
-		}			
+		}
 	}
 }
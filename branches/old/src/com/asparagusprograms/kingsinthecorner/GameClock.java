@@ -0,0 +1,58 @@
+/**
+ * Copyright 2010,2011 Trevor Boyce
+ *
+ * This file is part of Kings in the Corner.
+ *
+ *    Kings in the Corner is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    Kings in the Corner is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with Kings in the Corner.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.asparagusprograms.kingsinthecorner;
+
+import java.util.concurrent.locks.LockSupport;
+
+import android.os.SystemClock;
+
+/**
+ * The time a {@link GameLoop} goes by. Everything in a game that waits,
+ * such as the computer's delay between moves, waits on its loop's clock
+ * instead of sleeping, so the loop stays free to run other commands.
+ */
+public abstract class GameClock {
+	/** A clock that goes by {@link SystemClock#uptimeMillis()} and really waits. */
+	public static final GameClock REAL = new GameClock() {
+		@Override
+		public long uptimeMillis() {
+			return SystemClock.uptimeMillis();
+		}
+
+		@Override
+		void waitUntil(long when) {
+			long wait = when - SystemClock.uptimeMillis();
+			if (wait > 0) LockSupport.parkNanos(this, wait * 1000000L);
+		}
+	};
+
+	/**
+	 * Gets the current time on this clock.
+	 * @return The time in milliseconds. Only differences between times mean anything.
+	 */
+	public abstract long uptimeMillis();
+
+	/**
+	 * Waits until a time, or less if the loop is woken with
+	 * {@link LockSupport#unpark(Thread)}. Only called by the loop.
+	 * @param when The time to wait until, in milliseconds of {@link #uptimeMillis()}.
+	 */
+	abstract void waitUntil(long when);
+}
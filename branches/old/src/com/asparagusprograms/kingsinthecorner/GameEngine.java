@@ -19,6 +19,7 @@
 
 package com.asparagusprograms.kingsinthecorner;
 
+import java.io.EOFException;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -26,33 +27,47 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.StreamCorruptedException;
-import java.text.DecimalFormat;
-import java.util.Observable;
 
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Matrix;
-import android.graphics.Paint;
+import android.graphics.Point;
 import android.graphics.Rect;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
+import android.util.Log;
 import android.view.MotionEvent;
+import android.view.VelocityTracker;
 import android.widget.Toast;
 
+import com.asparagusprograms.kingsinthecorner.SpriteAtlas.Sprite;
+
 
 /**
  * Handles game functions and drawing and provides access to necessary information.
+ * <p>
+ * The game is only ever changed on the engine's {@link GameLoop}. Public methods
+ * that change the game post a command to the loop and return right away, and
+ * methods that get information read the newest {@link GameSnapshot}, so they may
+ * be called from any thread. What happens in the game is sent to listeners as
+ * {@link GameEvent}s, see {@link #addListener(GameEventBus.Listener, int, Handler)}.
  */
-public class GameEngine extends Observable implements Runnable {
+public class GameEngine {
 	// Types for computer errors
 	/** The computer is moving a pile of cards. Use with {@link #computerError(int)}.*/
 	private final static int STYLE_MOVE = 1;
 	/** The computer is playing a card from their hand. Use with {@link #computerError(int)}. */
 	private final static int STYLE_PLAY = 2;
 
+	/** The longest the loop waits for images to finish loading before starting a game, in milliseconds. */
+	private static final long ASSET_TIMEOUT = 2000;
+
 	// User preferences
 	/** Whether or not to display the number of cards remaining in the deck. */
 	private boolean mDrawPileCount;
@@ -60,9 +75,7 @@ public class GameEngine extends Observable implements Runnable {
 	private boolean mHighlightCards;
 	/** Whether or not to automatically save the game at various points. */
 	private boolean mAutosave;
-	/** Whether or not to display a warning dialog when the deck becomes empty. */
-	private boolean mEmptyDeckWarning;
-	/** Whether or not the empty deck warning has been displayed yet. */
+	/** Whether or not {@link GameEvent.DeckEmpty} has been sent yet this game. */
 	private boolean mWarnedEmpty;
 	/** Whether or not to automatically turn on sort hand at the start of the game. */
 	private boolean mSortHand;
@@ -105,13 +118,15 @@ public class GameEngine extends Observable implements Runnable {
 
 	// Global variables
 	/** The context associated with the game's resources. */
-	private Context mContext;
+	private final Context mContext;
 	/** The default shared preferences. */
-	private SharedPreferences mPrefs;
+	private final SharedPreferences mPrefs;
 	/** The string to use as a filename when saving the game. */
 	private String mSaveString;
+	/** The lock guarding the save file. */
+	private StorageLock mSaveLock;
 	/** The number of human players for the game. */
-	private int mPlayerCount;
+	private final int mPlayerCount;
 	/** The value for the current player. */
 	private int mTurn;
 	
@@ -122,10 +137,24 @@ public class GameEngine extends Observable implements Runnable {
 	 */
 	private int mWinner;
 	
-	/** Used to pause the computer playing thread. */
-	private volatile boolean mPaused;
-	/** Used to stop the computer playing thread. */
+	/** Runs every command that changes the game, one at a time. */
+	private final GameLoop mLoop;
+	/** Sends what happens in the game to listeners. */
+	private final GameEventBus mEvents;
+	/** Used to pause the computer playing. */
+	private boolean mPaused;
+	/** Used to stop the computer playing. */
 	private volatile boolean mStop;
+	/** The computer turn being played, or null if the computer isn't playing. */
+	private ComputerTurn mComputerTurn;
+	
+	// Game history variables
+	/** The number of milliseconds the current game was played before it was last resumed. */
+	private long mPlayTime;
+	/** The time the current game was last resumed, or 0 if it is paused. */
+	private long mResumeTime;
+	/** The number of moves the human player has made in the current game. */
+	private int mMoves;
 
 	//Undo variables
 	/** Whether or not a player's last move can be undone. */
@@ -163,9 +192,9 @@ public class GameEngine extends Observable implements Runnable {
 
 	// Drawing variables
 	/** True if the game is ready to be drawn to a canvas, false otherwise. */
-	private boolean mDrawInitialized;
-	/** The paint used when drawing the game to a canvas. */
-	private Paint mPaint;
+	private volatile boolean mDrawInitialized;
+	/** False from dealing the cards until {@link #applyLayout()} places them, so no snapshot shows unplaced piles. */
+	private boolean mLaidOut;
 	/** The height of the view the game is to be drawn in. */
 	private int mViewHeight;
 	/** The width of the view the game is to be drawn in. */
@@ -174,60 +203,165 @@ public class GameEngine extends Observable implements Runnable {
 	private int mCardHeight;
 	/** The width of a single card when drawn to a canvas. */
 	private int mCardWidth;
-	/** The full height of the screen. */
-	private int mScreenHeight;
+	/** Where everything goes on the table at its current size, or null until the table has a size. */
+	private volatile TableLayout mLayout;
+	/** The sprites, preferences and text the table is drawn with, or null until the cards are placed. */
+	private TableStyle mStyle;
 	/** True if the current hand should be hidden. */
 	private boolean mHideHand;
-	/** The view used for the card table to draw the game to. */
-	private CardTableView mTable;
+	/** The table to draw the game to. */
+	private final GameTable mTable;
 	/** The target x-coordinate for user touch interaction. */
 	private int mTarX;
 	/** The target y-coordinate for user touch interaction. */
 	private int mTarY;
+	/** Where the selected card or pile is drawn, a little ahead of the finger while it is moving. */
+	private int mDragX, mDragY;
+
+	// Dragging
+	/** The shortest time between handling drag positions, about one frame, in milliseconds. */
+	private static final long MOVE_FRAME_MILLIS = 16;
+	/** Tracks how fast the finger is moving from every touch sample, including the ones between move events. */
+	private VelocityTracker mVelocityTracker;
+	/** True while the latest drag position is waiting to be handled. */
+	private boolean mMovePending;
+	/** When a drag position was last handled, in milliseconds of {@link GameLoop#uptimeMillis()}. */
+	private long mLastMoveTime;
+	/** Handles the latest drag position. */
+	private final Runnable mApplyMove = new Runnable() {
+		public void run() {
+			applyMove();
+		}
+	};
 
 	// Stored bitmaps
 	/**
 	 * An array of bitmaps for displayer the current player's turn
 	 * in a multi-player game.
 	 */
-	private Bitmap[] mPlayerBitmaps;
+	private Sprite[] mPlayerBitmaps;
 	/** The bitmap to display when showing the back of a card. */
-	private Bitmap mCardBack;
-	/**
-	 * Same as {@link #mCardBack} but rotated 180 to show the computer's hand more
-	 * like it is facing the player.
-	 */
-	private Bitmap mComputerCardBack;
+	private Sprite mCardBack;
 	/** Displayed over a card or pile to make it highlighted. */
-	private Bitmap mGlowNormal, mGlowSide, mGlowCorner1, mGlowCorner2;
+	private Sprite mGlowNormal, mGlowSide, mGlowCorner1, mGlowCorner2;
 
 	//Rects for placing bitmaps
 	/** Rectangle used for placing the draw pile on the table. */
 	private Rect draw;
 
+	/**
+	 * The newest copy of the game to draw, or null before the game is set up.
+	 * A new snapshot is made each time the game changes, so the table can be
+	 * drawn from any thread without seeing a move half made.
+	 */
+	private volatile GameSnapshot mSnapshot;
+
+	// Drawing, which never allocates
+	/** The tag used when logging draw allocations. */
+	private static final String DRAW_TAG = "GameEngineDraw";
+	/** True to count the objects allocated while drawing each frame. Slow, so only done when debugging. */
+	private final boolean mCountAllocations = Log.isLoggable(DRAW_TAG, Log.DEBUG);
+	/** The number of frames drawn while counting allocations. */
+	private int mCountedFrames;
+	/** The number of counted frames that allocated at least one object. */
+	private int mAllocatingFrames;
+	/** The time of the oldest touch not in a snapshot yet, or 0 if there isn't one. */
+	private long mPendingInputTime;
+	/** True if {@link #mPendingInputTime} is for a move while dragging. */
+	private boolean mPendingInputDrag;
+	/** The {@link GameSnapshot#version} of the last snapshot drawn. Only used by the thread drawing the game. */
+	private int mDrawnVersion;
+
+	// Moving cards
+	/** The longest a card takes to slide onto a pile when the computer plays, in milliseconds. */
+	private static final long COMPUTER_MOVE_MILLIS = 300;
+	/** How long a card the player dropped takes to slide onto the pile, in milliseconds. */
+	private static final long DROP_MILLIS = 120;
+	/** Shows cards moving onto piles after moves are made. */
+	private final CardAnimator mAnimator = new CardAnimator();
+
+	// Rects for redrawing only what changed
+	/** Used to build the area to redraw. */
+	private final Rect mDirty = new Rect();
+	/** The area covered by the selected card or pile when it was last drawn. */
+	private final Rect mDragBounds = new Rect();
+
+	// The table layer, only used by the thread drawing the game
+	/**
+	 * Everything that only changes when a move is made: the table image, deck,
+	 * piles, scores and the computer's hand. Drawing a frame while dragging is
+	 * then a single copy of this plus the hand and the dragged cards.
+	 */
+	private Bitmap mTableLayer;
+	/** The canvas used to draw to {@link #mTableLayer}. */
+	private final Canvas mLayerCanvas = new Canvas();
+	/** Held while a frame is drawn and while the bitmaps it draws are swapped or recycled. */
+	private final Object mDrawLock = new Object();
+	/** True once the engine's bitmaps have been recycled by {@link #quit()}. Only used while holding {@link #mDrawLock}. */
+	private boolean mReleased;
+	/** The {@link GameSnapshot#tableVersion} drawn in {@link #mTableLayer}. */
+	private int mLayerVersion;
+	/** The {@link CardAnimator#getVersion()} drawn in {@link #mTableLayer}. */
+	private int mLayerAnimationVersion;
+	/** The area the moving cards need drawn next frame. */
+	private final Rect mAnimationDirty = new Rect();
+	/** Incremented each time anything in the table layer changes. */
+	private int mTableVersion;
+	/** Incremented each time a snapshot is published. */
+	private int mSnapshotVersion;
+	/** The image drawn under the game. Only changed while holding {@link #mDrawLock}. */
+	private Drawable mTableImageDrawable;
+	/** The decoded table image in {@link #mTableImageDrawable}, charged to the {@link BitmapBudget}. */
+	private Bitmap mTableImageBitmap;
+	/** The drawable resource for the table image. */
+	private int mTableImageId;
+	/** The resource and table size {@link #mTableImageBitmap} was decoded for. */
+	private int mLoadedTableImageId, mLoadedTableWidth, mLoadedTableHeight;
+
 	/**
 	 * Creates a new game engine to be used throughout this round of games.
 	 * @param context The context associated with the game's resources.
 	 * @param numPlayers The number of human players in the game.
 	 * @param table The view used to draw the game to.
 	 */
-	public GameEngine(Context context, int numPlayers, CardTableView table) {
+	public GameEngine(Context context, int numPlayers, GameTable table) {
 		mContext = context;
+		mPrefs = PreferenceManager.getDefaultSharedPreferences(context);
 		mTable = table;
 		mPlayerCount = numPlayers;
-
+		mLoop = new GameLoop("GameLoop", GameClock.REAL);
+		mEvents = new GameEventBus(mLoop);
+
+		// Images are normally loaded from the menu already, this only waits if they are still loading.
+		// Any image not loaded in time is loaded when it is first used.
+		mLoop.post(new Runnable() {
+			public void run() {
+				AssetLoader.await(ASSET_TIMEOUT);
+			}
+		});
 		Initialize();
 	}
 
-	/** Initializes global variables. **/
+	/** Initializes global variables, once everything already asked of the engine is done. **/
 	public void Initialize() {
-		mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+		mLoop.post(new Runnable() {
+			public void run() {
+				resetGame();
+			}
+		});
+	}
+
+	/** Initializes global variables. **/
+	private void resetGame() {
+		// End any computer turn from the last game before its piles and hands are replaced
+		cancelComputerTurn();
 		mUsername = mPrefs.getString(mContext.getResources().getString(R.string.pref_key_username), mContext.getResources().getString(R.string.username_none));
 		mCardStyle = mPrefs.getString(mContext.getResources().getString(R.string.pref_key_cardImage), mContext.getResources().getString(R.string.cardImage_default));
 		mCardBackStyle = mPrefs.getString(mContext.getResources().getString(R.string.pref_key_cardBack), mContext.getResources().getString(R.string.cardBack_default));
 		mDifficulty = Integer.parseInt(mPrefs.getString(mContext.getResources().getString(R.string.pref_key_difficulty), "0"));
-		updatePrefs();
+		loadPrefs();
 		mSaveString = mUsername + "_save.dat";
+		mSaveLock = StorageLock.forFile(mSaveString);
 		mTurn = -1;
 		mWinner = -1;
 
@@ -237,28 +371,20 @@ public class GameEngine extends Observable implements Runnable {
 			mHideHand = true;
 		}
 
-		if (mPlayerCount > 1) mPlayerBitmaps = new Bitmap[mPlayerCount];
-		switch (mPlayerCount) {
-		case 4:
-			mPlayerBitmaps[3] = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.player4);
-		case 3:
-			mPlayerBitmaps[2] = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.player3);
-		case 2:
-			mPlayerBitmaps[1] = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.player2);
-			mPlayerBitmaps[0] = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.player1);
-			break;
-		default:
-			break;
+		if (mPlayerCount > 1) {
+			mPlayerBitmaps = new Sprite[mPlayerCount];
+			for (int i = 0; i < mPlayerCount; i++) {
+				mPlayerBitmaps[i] = CardImageCache.getTableSprite(mContext, CardImageCache.PLAYER1 + i);
+			}
 		}
 
 		setCardBackImage();
 
-		mGlowNormal = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.glow);
-		mGlowSide = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.glow_side);
-		mGlowCorner1 = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.glow_corner1);
-		mGlowCorner2 = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.glow_corner2);
+		mGlowNormal = CardImageCache.getTableSprite(mContext, CardImageCache.GLOW);
+		mGlowSide = CardImageCache.getTableSprite(mContext, CardImageCache.GLOW_SIDE);
+		mGlowCorner1 = CardImageCache.getTableSprite(mContext, CardImageCache.GLOW_CORNER1);
+		mGlowCorner2 = CardImageCache.getTableSprite(mContext, CardImageCache.GLOW_CORNER2);
 
-		mPaint = new Paint();
 		mSelectedCard = null;
 		mSelectedPile = -1;
 		mHighlightedPile = -1;
@@ -281,8 +407,12 @@ public class GameEngine extends Observable implements Runnable {
 	// Cheats
 	/** Automatically win the current game. */
 	public void autoWin() {
-		mHands[0].clear();
-		playerWin();
+		mLoop.post(new Runnable() {
+			public void run() {
+				mHands[0].clear();
+				playerWin();
+			}
+		});
 	}
 
 	/** 
@@ -290,16 +420,26 @@ public class GameEngine extends Observable implements Runnable {
 	 * A joker cannot be played. Anywhere. Ever.
 	 */
 	public void trash() {
-		Card joker = new Card(0, 4);
-		joker.setImage(mContext, mCardStyle);
-		mHands[1].addCard(joker);
-		mTable.postInvalidate();
+		mLoop.post(new Runnable() {
+			public void run() {
+				Card joker = new Card(0, 4);
+				joker.setImage(mContext, mCardStyle);
+				mHands[1].addCard(joker);
+				publishSnapshot();
+				invalidateHand(1);
+			}
+		});
 	}
 
 	/** Toggles {@link #mShowComputerHand} on and off. */
 	public void toggleShowComputerHand() {
-		mShowComputerHand = !mShowComputerHand;
-		mTable.postInvalidate();
+		mLoop.post(new Runnable() {
+			public void run() {
+				mShowComputerHand = !mShowComputerHand;
+				publishSnapshot();
+				invalidateHand(1);
+			}
+		});
 	}
 
 	/**
@@ -307,7 +447,8 @@ public class GameEngine extends Observable implements Runnable {
 	 * @return The current turn.
 	 */
 	public int turn() {
-		return mTurn;
+		GameSnapshot s = mSnapshot;
+		return (s == null) ? -1 : s.turn;
 	}
 
 	/**
@@ -316,19 +457,27 @@ public class GameEngine extends Observable implements Runnable {
 	 * 			returns -1. 
 	 */
 	public int winner() {
-		return mWinner;
+		GameSnapshot s = mSnapshot;
+		return (s == null) ? -1 : s.winner;
 	}
 
 	/**
-	 * Gets whether or not the empty deck warning dialog needs to be displayed.
-	 * @return True if the empty deck warning dialog needs to be displayed, false otherwise.
+	 * Starts sending game events to a listener.
+	 * @param listener The listener to send events to.
+	 * @param types The kinds of event to send, type bits such as {@link GameEvent#TURN_STARTED} combined.
+	 * @param handler The handler whose thread calls the listener, such as one made on the
+	 * 			UI thread, or null to call it on a thread of its own.
 	 */
-	public boolean warnEmpty() {
-		if (mDeck.cardsLeft() == 0 && mEmptyDeckWarning && !mWarnedEmpty) {
-			mWarnedEmpty = true;
-			return true;
-		}
-		return false;
+	public void addListener(GameEventBus.Listener listener, int types, Handler handler) {
+		mEvents.subscribe(listener, types, handler);
+	}
+
+	/**
+	 * Stops sending game events to a listener.
+	 * @param listener The listener to stop sending events to.
+	 */
+	public void removeListener(GameEventBus.Listener listener) {
+		mEvents.unsubscribe(listener);
 	}
 
 	/**
@@ -344,17 +493,21 @@ public class GameEngine extends Observable implements Runnable {
 	 * @return True if the current player's last move can be undone, false otherwise.
 	 */
 	public boolean canUndo() {
-		if (mUndoCard == null) return false;
-		return mCanUndo;
+		GameSnapshot s = mSnapshot;
+		return (s != null && s.canUndo);
 	}
 
 	/**
 	 * Sets whether or not to hide the current hand.
 	 * @param hideHand Set to true if the current hand should be hidden.
 	 */
-	public void hideHand(boolean hideHand) {
-		mHideHand = hideHand;
-		mTable.postInvalidate();
+	public void hideHand(final boolean hideHand) {
+		mLoop.post(new Runnable() {
+			public void run() {
+				mHideHand = hideHand;
+				invalidateAll();
+			}
+		});
 	}
 
 	/** Sets that the next game will no longer be the first game. */
@@ -373,39 +526,132 @@ public class GameEngine extends Observable implements Runnable {
 	//Gameplay methods
 	/** Undo the last move. */
 	public void undo() {
-		if (mUndoIsSide) {
-			mSides[mUndoPos].undo(mReplaceWithCard);
-		} else {
-			mUndoCard.setImage(mContext, mCardStyle);
-			mCorners[mUndoPos].undo(mReplaceWithCard);
-		}
-		mUndoCard.setRotate(0, mContext, mCardStyle);
-		mHands[mTurn].addCard(mUndoCard);
-		mCanUndo = false;
+		mLoop.post(new Runnable() {
+			public void run() {
+				// The move may have stopped being undoable since this was asked for
+				if (!mCanUndo || mUndoCard == null) return;
+				if (mUndoIsSide) {
+					mSides[mUndoPos].undo(mReplaceWithCard);
+				} else {
+					mUndoCard.setImage(mContext, mCardStyle);
+					mCorners[mUndoPos].undo(mReplaceWithCard);
+				}
+				mUndoCard.setRotate(0);
+				mHands[mTurn].addCard(mUndoCard);
+				mCanUndo = false;
 
-		mTable.postInvalidate();
+				invalidateAll();
+			}
+		});
 	}
 
 	/** Pause the computer playing. */
 	public void pause() {
-		mPaused = true;
-		if (mAutosave) save();
+		mLoop.post(new Runnable() {
+			public void run() {
+				mPaused = true;
+				mPlayTime = playTime();
+				mResumeTime = 0;
+				if (mAutosave) saveGame();
+			}
+		});
 	}
 
 	/** Resume the computer playing. */
 	public void resume() {
-		mPaused = false;
+		mLoop.post(new Runnable() {
+			public void run() {
+				mPaused = false;
+				if (mResumeTime == 0) mResumeTime = System.currentTimeMillis();
+				// Carry on with the computer's turn where it stopped
+				if (mComputerTurn != null && mComputerTurn.mWaiting) {
+					mComputerTurn.mWaiting = false;
+					mLoop.post(mComputerTurn);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Gets how long the current game has been played, not counting time paused.
+	 * @return The number of milliseconds the current game has been played.
+	 */
+	private long playTime() {
+		if (mResumeTime == 0) return mPlayTime;
+		return mPlayTime + (System.currentTimeMillis() - mResumeTime);
 	}
 
-	/** Start the computer playing. */
-	public void start() {
-		Thread thread = new Thread(this);
-		thread.start();
+	/** Start the computer playing. Must be called on the game loop. */
+	private void start() {
+		cancelComputerTurn();
+		mComputerTurn = new ComputerTurn();
+		mLoop.post(mComputerTurn);
 	}
 
-	/** Stop the computer playing. */
+	/**
+	 * Stop the computer playing. A move already being made is finished,
+	 * and the computer's next move is dropped from the game loop.
+	 */
 	public void stop() {
 		mStop = true;
+		mLoop.post(new Runnable() {
+			public void run() {
+				cancelComputerTurn();
+			}
+		});
+	}
+
+	/**
+	 * Ends the computer's turn, if it is playing, without going to the next turn.
+	 * Its next move is dropped from the game loop right away, so nothing of
+	 * the turn is left to run. Must be called on the game loop.
+	 */
+	private void cancelComputerTurn() {
+		if (mComputerTurn == null) return;
+		mComputerTurn.mCancelled = true;
+		mLoop.remove(mComputerTurn);
+		mComputerTurn = null;
+	}
+
+	/**
+	 * Ends the game loop once everything already asked of the engine is done,
+	 * such as saving, and stops the computer playing and sending events.
+	 * The loop's thread and every listener thread end. The engine can't be used after this.
+	 */
+	public void quit() {
+		mLoop.post(new Runnable() {
+			public void run() {
+				cancelComputerTurn();
+				mEvents.clear();
+				releaseBitmaps();
+			}
+		});
+		mLoop.quit();
+	}
+
+	/**
+	 * Recycles the table image and the table layer and gives their memory
+	 * back to the {@link BitmapBudget}. Nothing is drawn after this.
+	 */
+	private void releaseBitmaps() {
+		synchronized (mDrawLock) {
+			mReleased = true;
+			mTableImageDrawable = null;
+			recycle(mTableImageBitmap);
+			mTableImageBitmap = null;
+			recycle(mTableLayer);
+			mTableLayer = null;
+		}
+	}
+
+	/**
+	 * Gives a bitmap's memory back to the {@link BitmapBudget} and recycles it.
+	 * @param bitmap The bitmap, which nothing may draw from again, or null to do nothing.
+	 */
+	private static void recycle(Bitmap bitmap) {
+		if (bitmap == null) return;
+		BitmapBudget.release(bitmap);
+		bitmap.recycle();
 	}
 
 	/**
@@ -433,139 +679,174 @@ public class GameEngine extends Observable implements Runnable {
 		return (chance <= percent);
 	}
 
-	/** Thread used for the computer playing so the UI is not locked. */
-	@Override
-	public void run() {
-		try {
-			// Dirty way of handling exiting since the thread tries to run after the
-			// variables have been freed up, causing a NullPointerException.
+	/**
+	 * The computer's turn, played one move at a time on the game loop with
+	 * {@link #mComputerDelay} between moves, so nothing waits on the computer.
+	 * Moves are tried in the same order as always: each side pile onto the
+	 * corners and then the other sides, then each card in the hand onto the
+	 * corners and then the sides. Every card played starts the search over,
+	 * and the turn ends after a search that finds no moves.
+	 * <p>
+	 * A turn is cancelled with {@link GameEngine#cancelComputerTurn()}. Each move is
+	 * a single command, so cancelling never waits on more than the move being made.
+	 */
+	private class ComputerTurn implements Runnable {
+		/** True once the turn has been cancelled. */
+		boolean mCancelled;
+		/** True while the turn is waiting for the game to be resumed. */
+		boolean mWaiting;
+		/** True if the next step starts a new search for moves. */
+		private boolean mStarting = true;
+		/** True if a move was made during the current search. */
+		private boolean mMoved;
+		/** True once the side piles have been tried and cards in the hand are being tried. */
+		private boolean mPlaying;
+		/** The side pile or the card in the hand being tried. */
+		private int mFrom;
+		/** The pile being tried next, corners from 0 and then sides. */
+		private int mTo;
+
+		public void run() {
+			if (mCancelled || mStop) return;
+			if (mPaused) {
+				// Carried on by resume()
+				mWaiting = true;
+				return;
+			}
 
-			boolean playing = true;
-			while (playing) {
-				mTable.postInvalidate();
-				playing = false;
+			if (mStarting) {
 				// Check if the computer has won or only has a Joker
-				if (compWin() || (mHands[1].getCardCount() == 1 && mHands[1].getCard(0).getSuit() == 4) || mStop) return;
-
+				if (compWin() || (mHands[1].getCardCount() == 1 && mHands[1].getCard(0).getSuit() == 4)) {
+					finish();
+					return;
+				}
+				mStarting = false;
+				mMoved = false;
+				mPlaying = false;
+				mFrom = 0;
+				mTo = 0;
 				// Wait before playing
-				try {
-					Thread.sleep(mComputerDelay);
-				} catch (InterruptedException e) {}
-
-				// Try to move side piles
-				for (int i = 0; i < mSides.length; i++) {
-					// Try moving to corners
-					for (int j = 0; j < mCorners.length; j++) {
-						while(mPaused) { // Wait while the game is paused
-							if (mStop) return;
-							try {
-								Thread.sleep(1000);
-							} catch (InterruptedException e) {}
-						}	
-						if (!computerError(STYLE_MOVE) && mSides[i].moveTo(mCorners[j])) {
-							playing = true;
-							mTable.postInvalidate();
-							// Wait
-							try {
-								Thread.sleep(mComputerDelay);
-							} catch (InterruptedException e) {}
-						}
-					}
-					// Try moving to other sides
-					for (int j = 0; j < mSides.length; j++) {
-						while(mPaused) { // Wait while the game is paused
-							if (mStop) return;
-							try {
-								Thread.sleep(1000);
-							} catch (InterruptedException e) {}
-						}
-						if (!computerError(STYLE_MOVE) && j != i && mSides[i].moveTo(mSides[j])) {
-							playing = true;
-							mTable.postInvalidate();
-							// Wait
-							try {
-								Thread.sleep(mComputerDelay);
-							} catch (InterruptedException e) {}
-						}
-					}
+				mLoop.postDelayed(this, mComputerDelay);
+				return;
+			}
+
+			int piles = mCorners.length + mSides.length;
+			while (true) {
+				if (!mPlaying && mFrom == mSides.length) {
+					mPlaying = true;
+					mFrom = 0;
+				}
+				if (mPlaying && mFrom >= mHands[1].getCardCount()) break;
+
+				int from = mFrom;
+				boolean side = (mTo >= mCorners.length);
+				int dest = side ? mTo-mCorners.length : mTo;
+				if (++mTo == piles) {
+					mTo = 0;
+					mFrom++;
 				}
 
-				// Try to play cards in hand
-				for (int i = 0; i < mHands[1].getCardCount(); i++) {
-					// Try to play on corners
-					for (int j = 0; j < mCorners.length; j++) {
-						while(mPaused) { // Wait while the game is paused
-							if (mStop) return;
-							try {
-								Thread.sleep(1000);
-							} catch (InterruptedException e) {}
-						}
-						if (!computerError(STYLE_PLAY) && mCorners[j].play(mHands[1].getCard(i))) {
-							mHands[1].removeCard(i);
-							playing = true;
-							mTable.postInvalidate();
-							// Wait
-							try {
-								Thread.sleep(mComputerDelay);
-							} catch (InterruptedException e) {}
-							break;
-						}
+				if (!mPlaying) {
+					// Try to move side piles
+					if (side && dest == from) continue;
+					if (computerMovePile(from, side, dest)) {
+						mMoved = true;
+						invalidatePile(mSides[from]);
+						invalidatePile(side ? mSides[dest] : mCorners[dest]);
+						// Wait
+						mLoop.postDelayed(this, mComputerDelay);
+						return;
 					}
-					// Break if a card was played since the card count and position has changed
-					if (playing) break;
-					// Try to play on sides
-					for (int j = 0; j < mSides.length; j++) {
-						while(mPaused) { // Wait while the game is paused
-							if (mStop) return;
-							try {
-								Thread.sleep(1000);
-							} catch (InterruptedException e) {}
-						}
-						if ( (mSides[j].first == null || !computerError(STYLE_PLAY)) && mSides[j].play(mHands[1].getCard(i)) ) {
-							mHands[1].removeCard(i);
-							playing = true;
-							mTable.postInvalidate();
-							// Wait
-							try {
-								Thread.sleep(mComputerDelay);
-							} catch (InterruptedException e) {}
-							break;
-						}
-					}
-					// Break if a card was played since the card count and position has changed
-					if (playing) break;
+				} else if (computerPlayCard(from, side, dest)) {
+					// Try to play cards in hand
+					invalidatePile(side ? mSides[dest] : mCorners[dest]);
+					invalidateHand(1);
+					// Start over since the card count and position has changed
+					mStarting = true;
+					// Wait
+					mLoop.postDelayed(this, mComputerDelay);
+					return;
 				}
-			}		
-			while (mPaused) { // Wait while the game is paused
-				if (mStop) return;
-				try {
-					Thread.sleep(1000);
-				} catch (InterruptedException e) {}
+			}
+
+			if (mMoved) {
+				mStarting = true;
+				mLoop.post(this);
+				return;
 			}
 			if (mClearCorners) {
 				for (int i = 0; i < 4; i++)
 					mCorners[i].clearCorner();
 			}
-			
-			if (!playing) nextTurn();
+			finish();
+			advanceTurn();
+		}
+
+		/** Lets go of the turn once it is over. */
+		private void finish() {
+			if (mComputerTurn == this) mComputerTurn = null;
+		}
+	}
+
+	/**
+	 * Moves a side pile for the computer.
+	 * @param from The side pile to move.
+	 * @param side True to move onto a side pile, false for a corner pile.
+	 * @param dest The pile to move onto.
+	 * @return True if the pile was moved.
+	 */
+	private boolean computerMovePile(int from, boolean side, int dest) {
+		if (computerError(STYLE_MOVE) || !mSides[from].moveTo(side ? mSides[dest] : mCorners[dest])) return false;
+
+		animateFromPile(from, side, dest);
+		publishSnapshot();
+		mEvents.publish(new GameEvent.PileMoved(1, from, side, dest));
+		return true;
+	}
 
-		} catch (NullPointerException e) {}
+	/**
+	 * Plays a card from the computer's hand.
+	 * @param index The index of the card in the computer's hand.
+	 * @param side True to play on a side pile, false for a corner pile.
+	 * @param dest The pile to play on.
+	 * @return True if the card was played.
+	 */
+	private boolean computerPlayCard(int index, boolean side, int dest) {
+		Pile pile = side ? mSides[dest] : mCorners[dest];
+		// Never make a mistake when a side pile is empty
+		boolean error = !(side && pile.first == null) && computerError(STYLE_PLAY);
+		if (error || !pile.play(mHands[1].getCard(index))) return false;
+
+		animateFromHand(mHands[1].getCard(index), side, dest);
+		mEvents.publish(new GameEvent.CardPlayed(1, mHands[1].getCard(index), side, dest));
+		mHands[1].removeCard(index);
+		publishSnapshot();
+		return true;
 	}
 
 	/** 
 	 * Handles going to the next player's turn.
 	 * Changes {@link #mTurn} to the next player and
 	 * deals them a card if the deck is not empty. Starts
-	 * the computer playing thread if it is the computer's turn.
+	 * the computer playing if it is the computer's turn.
 	 */
 	public void nextTurn() {
+		mLoop.post(new Runnable() {
+			public void run() {
+				advanceTurn();
+			}
+		});
+	}
+
+	/** Goes to the next player's turn. Must be called on the game loop. */
+	private void advanceTurn() {
 		mCanUndo = false;
 		mSelectedPile = -1;
 		mSelectedCard = null;
 		if (mPlayerCount > 1) {
 			mHideHand = true;
 		} else {
-			if (mAutosave) save();
+			if (mAutosave) saveGame();
 		}
 
 		mTurn++;
@@ -574,9 +855,13 @@ public class GameEngine extends Observable implements Runnable {
 		if (mDeck.cardsLeft() > 0) {
 			mHands[mTurn].addCard(mDeck.dealCard());
 		}
+		publishSnapshot();
 
-		setChanged();
-		notifyObservers();
+		mEvents.publish(new GameEvent.TurnStarted(mTurn));
+		if (mDeck.cardsLeft() == 0 && !mWarnedEmpty) {
+			mWarnedEmpty = true;
+			mEvents.publish(new GameEvent.DeckEmpty());
+		}
 		mTable.postInvalidate();
 
 		if (mPlayerCount == 1 && mTurn == 1) start();
@@ -584,6 +869,19 @@ public class GameEngine extends Observable implements Runnable {
 
 	/** Sets up a new game. */
 	public void newGame() {
+		mLoop.post(new Runnable() {
+			public void run() {
+				dealGame();
+			}
+		});
+	}
+
+	/** Deals the cards for a new game. */
+	private void dealGame() {
+		// Cards still moving belong to the last game
+		mAnimator.clear();
+		mLaidOut = false;
+
 		// Set the deck and shuffle it
 		mDeck.shuffle();
 
@@ -609,15 +907,30 @@ public class GameEngine extends Observable implements Runnable {
 		if (mPlayerCount == 1 && mSortHand) {
 			mHands[0].toggleSortColor();
 		}
+		
+		mMoves = 0;
+		mPlayTime = 0;
+		mResumeTime = System.currentTimeMillis();
 
-		nextTurn();
+		advanceTurn();
+		applyLayout();
 	}
 
-	/** Saves the current game. */
+	/** Saves the current game, once everything already asked of the engine is done. */
 	public void save() {
+		mLoop.post(new Runnable() {
+			public void run() {
+				saveGame();
+			}
+		});
+	}
+
+	/** Saves the current game. */
+	private void saveGame() {
 		if (mWinner == -1 && mPlayerCount == 1 && mDeck != null) {
 			try {
-				synchronized(Main.sDataLock) {
+				mSaveLock.lockWrite();
+				try {
 					FileOutputStream fop = mContext.openFileOutput(mSaveString, Context.MODE_PRIVATE);
 					ObjectOutputStream out = new ObjectOutputStream(fop);
 
@@ -648,9 +961,13 @@ public class GameEngine extends Observable implements Runnable {
 					out.writeObject(mReplaceWithCard);
 					out.writeInt(mUndoPos);
 					out.writeBoolean(mUndoIsSide);
+					out.writeLong(playTime());
+					out.writeInt(mMoves);
 
 					out.close();
 					fop.close();
+				} finally {
+					mSaveLock.unlockWrite();
 				}
 			} catch (FileNotFoundException e) {
 				mTable.post(new Runnable() {
@@ -678,44 +995,76 @@ public class GameEngine extends Observable implements Runnable {
 	}
 
 	/**
-	 * Attempts to restore a saved game.
-	 * @return True if the restore was successful, false otherwise.
+	 * Restores the saved game, or deals a new game if there isn't one, once
+	 * everything already asked of the engine is done. Listeners are sent a
+	 * {@link GameEvent.GameStarted} saying which it was.
 	 */
-	public boolean restore() {
-		if (mPlayerCount == 1) {
-			try {
-				mContext.openFileInput(mSaveString);
-				if (restoreGame()) {
-					if (mTurn == 1) start();
-					mTable.postInvalidate();
-					//	if (mTurn == 1) start(); // Start the computer playing since it is their turn
-					return true; // Return true that a game was restored
+	public void restoreOrNewGame() {
+		mLoop.post(new Runnable() {
+			public void run() {
+				if (restoreSaved()) {
+					mEvents.publish(new GameEvent.GameStarted(true));
+				} else {
+					mEvents.publish(new GameEvent.GameStarted(false));
+					dealGame();
 				}
-			} catch (FileNotFoundException e) {
-				// There is no save game file to restore
+			}
+		});
+	}
+
+	/**
+	 * Attempts to restore a saved game and starts the computer playing if it is their turn.
+	 * @return True if the restore was successful, false otherwise.
+	 */
+	private boolean restoreSaved() {
+		if (mPlayerCount == 1 && saveExists()) {
+			if (restoreGame()) {
+				applyLayout();
+				if (mTurn == 1) start();
+				invalidateAll();
+				//	if (mTurn == 1) start(); // Start the computer playing since it is their turn
+				return true; // Return true that a game was restored
 			}
 		}
 		return false; // Game was not restored
 	}
 
+	/**
+	 * Gets whether the current user has a saved game.
+	 * @return True if the save file exists.
+	 */
+	private boolean saveExists() {
+		mSaveLock.lockRead();
+		try {
+			return mContext.getFileStreamPath(mSaveString).exists();
+		} finally {
+			mSaveLock.unlockRead();
+		}
+	}
+
 	/** Deletes the saved game for the current user. */
 	public void deleteSave() {
-		try {
-			mContext.deleteFile(mSaveString);
-		} catch (NullPointerException e) {
-			if (mTable != null) mTable.post(new Runnable() {
-				@Override
-				public void run() {
-					Toast.makeText(mContext, mContext.getResources().getString(R.string.toast_nullPointerException), Toast.LENGTH_SHORT).show();
+		mLoop.post(new Runnable() {
+			public void run() {
+				mSaveLock.lockWrite();
+				try {
+					mContext.deleteFile(mSaveString);
+				} finally {
+					mSaveLock.unlockWrite();
 				}
-			});
-		}
+			}
+		});
 	}
 
 	/** Toggles the "sortedness" of the current hand. */
 	public void sortHand() {
-		mHands[mTurn].toggleSortColor();
-		mTable.postInvalidate();
+		mLoop.post(new Runnable() {
+			public void run() {
+				mHands[mTurn].toggleSortColor();
+				publishSnapshot();
+				invalidateHand(mTurn);
+			}
+		});
 	}
 
 	/** 
@@ -723,10 +1072,11 @@ public class GameEngine extends Observable implements Runnable {
 	 * @return True if the current hand is sorted by color.
 	 */
 	public boolean handSorted() {
-		if (mHands == null || mHands[mTurn] == null) {
+		GameSnapshot s = mSnapshot;
+		if (s == null || s.turn < 0 || s.hands[s.turn] == null) {
 			return false;
 		}
-		return mHands[mTurn].isSortedColor();
+		return s.hands[s.turn].isSortedColor();
 	}
 
 	// Drawing methods
@@ -739,144 +1089,238 @@ public class GameEngine extends Observable implements Runnable {
 	}
 
 	/** 
-	 * Sets the full height of the screen.
-	 * @param height The height of the screen.
+	 * Called whenever the screen is being drawn. Draws the newest snapshot of the game.
+	 * @param canvas The canvas to draw the game to.
 	 */
-	public void screenHeight(int height) {
-		mScreenHeight = height;
+	public void onDraw(Canvas canvas) {
+		if (mStop) return;
+		drawFrame(canvas);
 	}
 
-	/** 
-	 * Called whenever the screen is being drawn.
+	/**
+	 * Lays out the table for a new size. Only makes a new {@link TableLayout}
+	 * and moves the piles and hands to it, images are only decoded again if
+	 * the table got bigger. Must be called whenever the table changes size,
+	 * and may be called again with the same size. The layout is made on the game loop.
+	 * @param width The new width of the table.
+	 * @param height The new height of the table.
+	 */
+	public void onSizeChanged(final int width, final int height) {
+		if (width <= 0 || height <= 0) return;
+		mLoop.post(new Runnable() {
+			public void run() {
+				TableLayout layout = mLayout;
+				if (layout == null || layout.width != width || layout.height != height ||
+						layout.cardWidth != mCardBack.getWidth() || layout.cardHeight != mCardBack.getHeight()) {
+					mLayout = new TableLayout(width, height, mCardBack.getWidth(), mCardBack.getHeight());
+				}
+				applyLayout();
+			}
+		});
+	}
+
+	/**
+	 * Places the piles and hands where {@link #mLayout} puts them, once the
+	 * table has a size and the cards have been dealt.
+	 */
+	private void applyLayout() {
+		TableLayout layout = mLayout;
+		if (layout == null || mSides[0] == null || mCorners[0] == null) return;
+
+		mCardWidth = layout.cardWidth;
+		mCardHeight = layout.cardHeight;
+		mViewWidth = layout.width;
+		mViewHeight = layout.height;
+		for (int i = 0; i < mSides.length; i++) {
+			mSides[i].pos = new Rect(layout.sides[i]);
+		}
+		for (int i = 0; i < mCorners.length; i++) {
+			mCorners[i].pos = new Rect(layout.corners[i]);
+		}
+		draw.set(layout.draw);
+
+		// Set up positions for each hand
+		if (mPlayerCount == 1) {
+			mHands[0].initializeDraw(layout.handTop, mViewWidth, mCardWidth);
+			mHands[1].initializeDraw(layout.computerHandTop, mViewWidth, mCardWidth);
+		} else {
+			for (int i = 0; i < mPlayerCount; i++) {
+				mHands[i].initializeDraw(layout.handTop, mViewWidth, mCardWidth);
+			}
+		}
+		loadTableImage();
+		restyle(layout);
+		mLaidOut = true;
+		publishSnapshot();
+		mDrawInitialized = true;
+		mTable.postInvalidate();
+	}
+
+	/**
+	 * Makes a new style for the current sprites and preferences.
+	 * @param layout The layout to place the text for.
+	 */
+	private void restyle(TableLayout layout) {
+		mStyle = new TableStyle(layout, mPlayerCount, mCardBack, mPlayerBitmaps,
+				new Sprite[] {mGlowNormal, mGlowSide, mGlowCorner1, mGlowCorner2},
+				mHighlightCards, mDrawPileCount, mDrawPileCountColor, mScoresColor);
+	}
+
+	/**
+	 * Draws the newest snapshot of the game. Everything drawn comes from the
+	 * snapshot and its style, so it may be called from a rendering thread.
+	 * Holds {@link #mDrawLock} so the bitmaps drawn aren't recycled under it.
 	 * @param canvas The canvas to draw the game to.
+	 * @return True if the whole canvas was drawn, false if the game isn't ready to be drawn.
 	 */
-	public void onDraw(Canvas canvas) {
-		if (mStop) return;
-		if (!mDrawInitialized) {
-			// Set scaled dimensions
-			mCardWidth = mCardBack.getScaledWidth(canvas);
-			mCardHeight = mCardBack.getScaledHeight(canvas);
-			mViewWidth = mTable.getViewWidth();
-			mViewHeight = mTable.getViewHeight();
-
-			// Set up positions for side piles
-			int x = (mViewWidth/2)-(mCardWidth/2)-mCardHeight-10-(mCardHeight/5);
-			int y = (mViewHeight/2)-(mCardWidth/2)-(mCardHeight/4);
-			mSides[0].pos = new Rect(x, y, x+mCardHeight+(mCardHeight/5), y+mCardWidth);
-			x = (mViewWidth/2)-(mCardWidth/2);
-			y = (mViewHeight/2)-(mCardHeight/2)-(mCardHeight/4)-mCardHeight-10-(mCardHeight/5);
-			mSides[1].pos = new Rect(x, y, x+mCardWidth, y+mCardHeight+(mCardHeight/5));
-			x = (mViewWidth/2)+(mCardWidth/2)+10;
-			y = (mViewHeight/2)-(mCardWidth/2)-(mCardHeight/4);
-			mSides[2].pos = new Rect(x, y, x+mCardHeight+(mCardHeight/5), y+mCardWidth);
-			x = (mViewWidth/2)-(mCardWidth/2);
-			y = (mViewHeight/2)+(mCardHeight/2)-(mCardHeight/4)+10;
-			mSides[3].pos = new Rect(x, y, x+mCardWidth, y+mCardHeight+(mCardHeight/5));
-
-			// Set up positions for corner piles
-			x = (mViewWidth/2)-(mCardHeight/2)-mCardHeight-(mCardHeight/8);
-			y = (mViewHeight/2)-(mCardHeight/2)-(mCardHeight/4)-mCardHeight-(mCardHeight/8);
-			mCorners[0].pos = new Rect(x, y, 0, 0);
-			x = (mViewWidth/2)+(mCardWidth/2)+(mCardHeight/6);
-			y = (mViewHeight/2)-(mCardHeight/3)-(mCardHeight/2)-mCardHeight-(mCardHeight/8);
-			mCorners[1].pos = new Rect(x, y, 0, 0);
-			x = (mViewWidth/2)+(mCardWidth/2)+(mCardHeight/6);
-			y = (mViewHeight/2)+(mCardHeight/2)-(mCardHeight/4);
-			mCorners[2].pos = new Rect(x, y, 0, 0);
-			x = (mViewWidth/2)-(mCardHeight/2)-mCardHeight-(mCardHeight/8);
-			y = (mViewHeight/2)+(mCardHeight/2)-(mCardHeight/4);
-			mCorners[3].pos = new Rect(x, y, 0, 0);
-
-			// Set up rectangle for the draw pile
-			x = (mViewWidth/2)-(mCardWidth/2);
-			y = (mViewHeight/2)-(mCardHeight/2)-(mCardHeight/4);
-			draw.set(x, y, x+mCardWidth, y+mCardHeight);
-			mDrawInitialized = true;
-
-			// Set up positions for each hand
-			if (mPlayerCount == 1) {
-				mHands[0].initializeDraw(mViewHeight-mCardHeight, mViewWidth, mCardWidth);
-				mHands[1].initializeDraw(-(mCardHeight/2), mViewWidth, mCardWidth);
+	public boolean drawFrame(Canvas canvas) {
+		synchronized (mDrawLock) {
+			if (mReleased || mStop || !mDrawInitialized) return false;
+			GameSnapshot s = mSnapshot;
+			boolean drawn;
+			if (!mCountAllocations) {
+				drawn = drawSnapshot(canvas, s);
 			} else {
-				for (int i = 0; i < mPlayerCount; i++) {
-					mHands[i].initializeDraw(mViewHeight-mCardHeight, mViewWidth, mCardWidth);
+				Debug.resetThreadAllocCount();
+				Debug.startAllocCounting();
+				drawn = drawSnapshot(canvas, s);
+				Debug.stopAllocCounting();
+				int allocations = Debug.getThreadAllocCount();
+
+				mCountedFrames++;
+				if (allocations > 0) {
+					mAllocatingFrames++;
+					Log.d(DRAW_TAG, "Frame allocated " + allocations + " objects (" + mAllocatingFrames + " of " + mCountedFrames + " frames allocated)");
 				}
 			}
+
+			// The first frame drawn from a snapshot is the one that shows the touch in it
+			if (drawn && s.version != mDrawnVersion) {
+				mDrawnVersion = s.version;
+				if (s.inputTime != 0) InputLatency.record(s.inputDrag, SystemClock.uptimeMillis() - s.inputTime);
+			}
+			return drawn;
 		}
-		if (mDeck != null) {
-			if (mWinner == -1) {	// Nobody has won so draw the game data
-				if (mDeck.cardsLeft() != 0) {	// Deck isn't empty so draw the deck
-					canvas.drawBitmap(mCardBack, draw.left, draw.top, null);
-					if (mDrawPileCount) {	// Print the number of cards in the draw pile
-						mPaint.setColor(mDrawPileCountColor);
-
-						mPaint.setTextSize(mCardHeight/2);
-						mPaint.setAntiAlias(true);
-						DecimalFormat df = new DecimalFormat("00");
-						String count = df.format(mDeck.cardsLeft());
-						int height = (int) mPaint.descent();
-						int width = (int) mPaint.measureText(count);
-						canvas.drawText(count, (mViewWidth/2)-(width/2), (mViewHeight/2)-(height), mPaint);
-					}
-				}
-				if (mHands[mTurn] != null && !mHideHand) {
-					if (mPlayerCount == 1) mHands[0].draw(canvas, null, null);
-					else mHands[mTurn].draw(canvas, null, null);
-					
-					if (mPlayerCount > 1) {
-						canvas.drawBitmap(mPlayerBitmaps[mTurn], 0, 0, null); // Draws the current turn
-					}
-					// Draw the scores for each player
-					if (mPlayerCount > 1) {
-						mPaint.setTextSize(mCardHeight/5);
-						mPaint.setColor(mScoresColor);
-						mPaint.setAntiAlias(true);
-						for (int i = 0; i < mPlayerCount; i++) {
-							String s = "Player " + (i+1) + ": " + mHands[i].getCardCount() + " ";
-							canvas.drawText(s, (int)((mViewWidth)-mPaint.measureText(s)-2), (int)((i+1)*(mPaint.descent()-mPaint.ascent())), mPaint);
-						}
-					}
-					//else drawComputerHand(c);
-					else {
-						if (mShowComputerHand) mHands[1].draw(canvas, null, null);
-						else mHands[1].draw(canvas, null, mComputerCardBack);
-					}
-				}
-				if (mSides != null) {
-					// Loop through and draw each side
-					for (int i = 0; i < mSides.length; i++) {
-						if (i != mSelectedPile && mSides[i] != null) {
-							mSides[i].draw(canvas, mCardHeight, mContext, mCardStyle);
-						}
-					}
-				}
-				if (mCorners != null) {
-					// Loop through and draw each corner
-					for (int i = 0; i < mCorners.length; i++) {
-						if (mCorners[i] != null) mCorners[i].draw(canvas, mCardHeight, mContext, mCardStyle);
-					}
-				}
-				if (mSides != null && mCorners != null && mHighlightCards) {
-					drawHighlighted(canvas);
+	}
+
+	/**
+	 * Draws the newest snapshot of the game. Must not allocate, everything
+	 * it needs is made when the table is laid out. The table layer is only
+	 * redrawn when something in it has changed.
+	 * @param canvas The canvas to draw the game to.
+	 * @param s The snapshot to draw.
+	 * @return True if the whole canvas was drawn.
+	 */
+	private boolean drawSnapshot(Canvas canvas, GameSnapshot s) {
+		if (s == null || s.style == null) return false;
+		TableStyle style = s.style;
+		if (s.winner != -1) {
+			drawTableImage(canvas, s.layout);
+			for (int i = 0; i < TableStyle.GAME_OVER_TEXT.length; i++) {
+				canvas.drawText(TableStyle.GAME_OVER_TEXT[i], style.gameOverX[i], style.gameOverY[i], style.messagePaint);
+			}
+			return true;
+		}
+
+		// Nobody has won so draw the game data
+		mAnimator.update(SystemClock.uptimeMillis());
+		if (mTableLayer == null || mLayerVersion != s.tableVersion || mLayerAnimationVersion != mAnimator.getVersion()) {
+			drawTableLayer(s);
+		}
+		canvas.drawBitmap(mTableLayer, 0, 0, null);
+
+		// Cards sliding onto piles, which keep asking for frames until they get there
+		mAnimator.draw(canvas, mAnimationDirty);
+		if (!mAnimationDirty.isEmpty()) {
+			mTable.postInvalidate(mAnimationDirty.left, mAnimationDirty.top, mAnimationDirty.right, mAnimationDirty.bottom);
+		}
+
+		// The current hand moves while cards are dragged over it
+		if (s.turn >= 0 && s.hands[s.turn] != null && !s.hideHand) {
+			if (mPlayerCount == 1) s.hands[0].draw(canvas, null, null);
+			else s.hands[s.turn].draw(canvas, null, null);
+		}
+		if (style.highlightCards) {
+			drawHighlighted(canvas, s);
+		}
+		// Draw the selected card/pile
+		if (s.selectedCard != null) {
+			s.selectedCard.setRotate(0);
+			s.selectedCard.setPos(s.tarX-(s.layout.cardWidth/2), s.tarY-(s.layout.cardHeight/4));
+			s.selectedCard.draw(canvas, null, null);
+		} else if (s.selectedPile >= 0)
+			s.sides[s.selectedPile].drawSelected(canvas, s.layout.cardWidth, s.layout.cardHeight, s.tarX, s.tarY);
+		return true;
+	}
+
+	/**
+	 * Draws everything in a snapshot that only changes when a move is made
+	 * to {@link #mTableLayer}, making the layer first if the table has changed size.
+	 * @param s The snapshot being drawn.
+	 */
+	private void drawTableLayer(GameSnapshot s) {
+		TableLayout layout = s.layout;
+		TableStyle style = s.style;
+		if (mTableLayer == null || mTableLayer.getWidth() != layout.width || mTableLayer.getHeight() != layout.height) {
+			recycle(mTableLayer);
+			mTableLayer = BitmapBudget.createBitmap(layout.width, layout.height, Bitmap.Config.ARGB_8888);
+			mLayerCanvas.setBitmap(mTableLayer);
+		}
+		Canvas canvas = mLayerCanvas;
+
+		drawTableImage(canvas, layout);
+		if (s.cardsLeft != 0) {	// Deck isn't empty so draw the deck
+			style.cardBack.draw(canvas, layout.draw.left, layout.draw.top, null);
+			if (style.drawPileCount) {	// Print the number of cards in the draw pile
+				int count = Math.min(s.cardsLeft, TableStyle.MAX_COUNT);
+				canvas.drawText(TableStyle.COUNT_TEXT[count], style.countX[count], style.countY, style.countPaint);
+			}
+		}
+		if (s.turn >= 0 && s.hands[s.turn] != null && !s.hideHand) {
+			if (mPlayerCount > 1) {
+				style.playerBitmaps[s.turn].draw(canvas, 0, 0, null); // Draws the current turn
+				// Draw the scores for each player
+				for (int i = 0; i < mPlayerCount; i++) {
+					int count = Math.min(s.hands[i].getCardCount(), TableStyle.MAX_COUNT);
+					canvas.drawText(style.scoreText[i][count], style.scoreX[i][count], style.scoreY[i], style.scorePaint);
 				}
-				// Draw the selected card/pile
-				if (mSelectedCard != null) {
-					mSelectedCard.setRotate(0, mContext, mCardStyle);
-					mSelectedCard.setPos(mTarX-(mCardWidth/2), mTarY-(mCardHeight/4));
-					mSelectedCard.draw(canvas, null, null);
-				} else if (mSelectedPile >= 0)
-					mSides[mSelectedPile].drawSelected(canvas, mCardWidth, mCardHeight, mTarX, mTarY, mContext, mCardStyle);
 			} else {
-				mPaint.setColor(Color.BLACK);
-				mPaint.setTextSize(mCardHeight/4);
-				mPaint.setAntiAlias(true);
-				String s1 = "Press Menu to play again";
-				String s2 = "or Back to exit.";
-				canvas.drawText(s1, (mViewWidth/2)-(int)(mPaint.measureText(s1)/2), (mViewHeight/2)-(int)mPaint.descent(), mPaint);
-				canvas.drawText(s2, (mViewWidth/2)-(int)(mPaint.measureText(s2)/2), (mViewHeight/2)+(int)mPaint.descent()-(int)mPaint.ascent(), mPaint);
-				mTable.postInvalidate();
-			}				
+				if (s.showComputerHand) s.hands[1].draw(canvas, null, null);
+				else s.hands[1].draw(canvas, null, style.computerCardBack);
+			}
+		}
+		// Loop through and draw each side, except one being dragged.
+		// Piles with a card moving onto them are drawn as they were before the move.
+		for (int i = 0; i < s.sides.length; i++) {
+			Pile cover = mAnimator.getCover(true, i);
+			if (cover != null) cover.draw(canvas, layout.cardHeight);
+			else if (i != s.selectedPile && s.sides[i] != null) {
+				s.sides[i].draw(canvas, layout.cardHeight);
+			}
 		}
+		// Loop through and draw each corner
+		for (int i = 0; i < s.corners.length; i++) {
+			Pile cover = mAnimator.getCover(false, i);
+			if (cover != null) cover.draw(canvas, layout.cardHeight);
+			else if (s.corners[i] != null) s.corners[i].draw(canvas, layout.cardHeight);
+		}
+		mLayerVersion = s.tableVersion;
+		mLayerAnimationVersion = mAnimator.getVersion();
+	}
+
+	/**
+	 * Draws the table image, stretched to fill the table.
+	 * @param canvas The canvas to draw to.
+	 * @param layout The layout of the table being drawn.
+	 */
+	private void drawTableImage(Canvas canvas, TableLayout layout) {
+		Drawable image = mTableImageDrawable;
+		if (image == null) {
+			canvas.drawColor(Color.BLACK);
+			return;
+		}
+		image.setBounds(0, 0, layout.width, layout.height);
+		image.draw(canvas);
 	}
 
 	/** Handles user touch events on the given view.
@@ -885,68 +1329,154 @@ public class GameEngine extends Observable implements Runnable {
 	 * @return True if the event was handled, false otherwise.
 	 */
 	public boolean onTouchEvent(MotionEvent event) {
-		if (mWinner != -1) return false;	// Make sure the game isn't over
-		if (mPlayerCount == 1 && mTurn != 0) return false;	// Make sure it isn't the computer's turn
+		GameSnapshot s = mSnapshot;
+		if (s == null || s.winner != -1) return false;	// Make sure the game isn't over
+		if (mPlayerCount == 1 && s.turn != 0) return false;	// Make sure it isn't the computer's turn
+
+		// The event is reused once this returns, so the game loop gets its own copy
+		final MotionEvent copy = MotionEvent.obtain(event);
+		mLoop.post(new Runnable() {
+			public void run() {
+				handleTouch(copy);
+				copy.recycle();
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Handles a touch event on the game loop.
+	 * @param event A copy of the movement event.
+	 */
+	private void handleTouch(MotionEvent event) {
+		// The game may have changed since the touch was posted
+		if (mWinner != -1) return;
+		if (mPlayerCount == 1 && mTurn != 0) return;
 		
-			int eventaction = event.getAction();
-			mTarX=(int)event.getRawX();
-			mTarY=(int)event.getRawY()-(mScreenHeight-mViewHeight);
-			switch (eventaction) { 
-			case (MotionEvent.ACTION_DOWN):
-				if (mTarY >= (mViewHeight-mCardHeight)) {
-					if (mSelectedCard == null) {
-						mSelectedCard = mHands[mTurn].getTargetCard(mTarX);
-					}
-				} else if (mTarX > draw.left && mTarX < draw.right && mTarY > draw.top && mTarY < draw.bottom) {
-					if (mWinner == -1 && (mPlayerCount > 1 || (mPlayerCount == 1 && mTurn == 0))) {
-						mSelectedCard = null;
-						mSelectedPile = -1;
-						nextTurn();
-					}
-				} else {
+		int eventaction = event.getAction();
+		mTarX=(int)event.getX();
+		mTarY=(int)event.getY();
+		// Measured from the oldest touch until a frame shows it
+		if (mPendingInputTime == 0) {
+			mPendingInputTime = event.getEventTime();
+			mPendingInputDrag = (eventaction == MotionEvent.ACTION_MOVE);
+		}
+		mDragX = mTarX;
+		mDragY = mTarY;
+		if (eventaction == MotionEvent.ACTION_DOWN) {
+			if (mVelocityTracker == null) mVelocityTracker = VelocityTracker.obtain();
+			else mVelocityTracker.clear();
+		}
+		if (mVelocityTracker != null) mVelocityTracker.addMovement(event);
+		switch (eventaction) { 
+		case (MotionEvent.ACTION_DOWN):
+			if (mTarY >= (mViewHeight-mCardHeight)) {
+				if (mSelectedCard == null) {
+					mSelectedCard = mHands[mTurn].getTargetCard(mTarX);
+				}
+			} else if (mTarX > draw.left && mTarX < draw.right && mTarY > draw.top && mTarY < draw.bottom) {
+				if (mWinner == -1 && (mPlayerCount > 1 || (mPlayerCount == 1 && mTurn == 0))) {
 					mSelectedCard = null;
 					mSelectedPile = -1;
-					findTargetPile();
-				}
-			break;
-			case MotionEvent.ACTION_MOVE:
-				if (mSelectedCard != null) {
-					if (mTarY >= mViewHeight-mCardHeight-mCardHeight/4) {
-						mHands[mTurn].hoverCardAt(mTarX);
-					}
-					else {
-						mHands[mTurn].shiftCardsNormal();
-						if (mHighlightCards) {
-							highlightPile();
-						}
-					}		
-				} else if (mSelectedPile >= 0 && mSides[mSelectedPile] != null) {
-					if (mHighlightCards){
-						highlightPile();
-					}
-				}
-				break;
-			case MotionEvent.ACTION_UP:
-				if (mTarY >= mViewHeight-mCardHeight-mCardHeight/4 && mSelectedCard != null) {
-					mHands[mTurn].addCardAtIndex(mSelectedCard);
-				}
-				else if (mSelectedCard != null || mSelectedPile >= 0)  {
-					if (!findTargetPile() && mSelectedCard != null) {
-						mHands[mTurn].addCard(mSelectedCard);
-					}
+					advanceTurn();
 				}
+			} else {
 				mSelectedCard = null;
 				mSelectedPile = -1;
-				mHighlightedPile = -1;
-				if (mClearCorners) {
-					for (int i = 0; i < 4; i++)
-						mCorners[i].clearCorner();
+				findTargetPile();
+			}
+		break;
+		case MotionEvent.ACTION_MOVE:
+			// Only the latest position is used, once a frame, however many move events come in
+			if (!mMovePending) {
+				mMovePending = true;
+				long wait = mLastMoveTime + MOVE_FRAME_MILLIS - mLoop.uptimeMillis();
+				if (wait > 0) mLoop.postDelayed(mApplyMove, wait);
+				else mLoop.post(mApplyMove);
+			}
+			return;
+		case MotionEvent.ACTION_UP:
+			// A drag position still waiting is older than this one
+			mMovePending = false;
+			if (mVelocityTracker != null) {
+				mVelocityTracker.recycle();
+				mVelocityTracker = null;
+			}
+			if (mTarY >= mViewHeight-mCardHeight-mCardHeight/4 && mSelectedCard != null) {
+				mHands[mTurn].addCardAtIndex(mSelectedCard);
+			}
+			else if (mSelectedCard != null || mSelectedPile >= 0)  {
+				if (!findTargetPile() && mSelectedCard != null) {
+					mHands[mTurn].addCard(mSelectedCard);
 				}
-				playerWin();
-				break;
 			}
-			mTable.postInvalidate();
-		return true;
+			mSelectedCard = null;
+			mSelectedPile = -1;
+			mHighlightedPile = -1;
+			if (mClearCorners) {
+				for (int i = 0; i < 4; i++)
+					mCorners[i].clearCorner();
+			}
+			playerWin();
+			break;
+		}
+		// Touching down and lifting up can change the whole table, but only happen once per drag
+		mDragBounds.setEmpty();
+		invalidateAll();
+	}
+
+	/**
+	 * Handles the latest drag position. Runs at most once a frame, so finding
+	 * the pile to highlight, shifting the hand and redrawing are only done
+	 * once for each frame drawn, not for every move event.
+	 */
+	private void applyMove() {
+		if (!mMovePending) return;
+		mMovePending = false;
+		mLastMoveTime = mLoop.uptimeMillis();
+		predictDrag();
+
+		int oldHighlight = mHighlightedPile;
+		if (mSelectedCard != null) {
+			if (mTarY >= mViewHeight-mCardHeight-mCardHeight/4) {
+				mHands[mTurn].hoverCardAt(mTarX);
+			}
+			else {
+				mHands[mTurn].shiftCardsNormal();
+				if (mHighlightCards) {
+					highlightPile();
+				}
+			}		
+		} else if (mSelectedPile >= 0 && mSides[mSelectedPile] != null) {
+			if (mHighlightCards){
+				highlightPile();
+			}
+		}
+		
+		// Only redraw what the drag changed, the table itself is the same
+		publishDragSnapshot();
+		if (mSelectedCard != null) invalidateHand(mTurn);
+		if (mSelectedCard != null || mSelectedPile >= 0) invalidateDrag();
+		if (oldHighlight != mHighlightedPile) {
+			invalidateHighlight(oldHighlight);
+			invalidateHighlight(mHighlightedPile);
+		}
+	}
+
+	/**
+	 * Moves where the selected card or pile is drawn ahead of the finger by
+	 * how far it will move in a frame, up to a quarter of a card, so it keeps
+	 * up with the finger. Only drawing uses this, the piles and the hand still
+	 * go by where the finger actually is.
+	 */
+	private void predictDrag() {
+		if (mVelocityTracker == null) return;
+		mVelocityTracker.computeCurrentVelocity(1000);
+		int maxLead = mCardWidth/4;
+		int leadX = (int)(mVelocityTracker.getXVelocity()*MOVE_FRAME_MILLIS/1000);
+		int leadY = (int)(mVelocityTracker.getYVelocity()*MOVE_FRAME_MILLIS/1000);
+		mDragX = mTarX + Math.max(-maxLead, Math.min(leadX, maxLead));
+		mDragY = mTarY + Math.max(-maxLead, Math.min(leadY, maxLead));
 	}
 
 
@@ -954,12 +1484,20 @@ public class GameEngine extends Observable implements Runnable {
 
 	/** Updates all user preferences. */
 	public void updatePrefs() {
+		mLoop.post(new Runnable() {
+			public void run() {
+				loadPrefs();
+			}
+		});
+	}
+
+	/** Reads all user preferences. */
+	private void loadPrefs() {
 		// Normal preferences
 		mDrawPileCount = mPrefs.getBoolean(mContext.getResources().getString(R.string.pref_key_drawPileCount), false);
 		mComputerDelay = mPrefs.getInt(mContext.getResources().getString(R.string.pref_key_computerDelay), 1000);
 		mHighlightCards = mPrefs.getBoolean(mContext.getResources().getString(R.string.pref_key_highlightCards), true);
 		mAutosave = mPrefs.getBoolean(mContext.getResources().getString(R.string.pref_key_autosave), false);
-		mEmptyDeckWarning = mPrefs.getBoolean(mContext.getResources().getString(R.string.pref_key_emptyDeckWarning), true);
 		mSortHand = mPrefs.getBoolean(mContext.getResources().getString(R.string.pref_key_sortHand), false);
 		mClearCorners = mPrefs.getBoolean(mContext.getResources().getString(R.string.pref_key_clearFullCorners), true);
 
@@ -967,6 +1505,9 @@ public class GameEngine extends Observable implements Runnable {
 		mDrawPileCountColor = mPrefs.getInt(mContext.getResources().getString(R.string.pref_key_drawPileCountColor), Color.WHITE);
 		mScoresColor = mPrefs.getInt(mContext.getResources().getString(R.string.pref_key_scoreColor), Color.BLACK);
 
+		// Image memory, set before any images are loaded
+		BitmapBudget.setLimitDivisor(Integer.parseInt(mPrefs.getString(mContext.getResources().getString(R.string.pref_key_imageMemory), mContext.getResources().getString(R.string.imageMemory_default))));
+
 		// Card style
 		String oldCardStyle = mCardStyle;
 		mCardStyle = mPrefs.getString(mContext.getResources().getString(R.string.pref_key_cardImage), mContext.getResources().getString(R.string.cardImage_default));
@@ -981,6 +1522,10 @@ public class GameEngine extends Observable implements Runnable {
 		String oldImage = mTableImage;
 		mTableImage = mPrefs.getString(mContext.getResources().getString(R.string.pref_key_tableImage), mContext.getResources().getString(R.string.tableImage_default));
 		if (!mTableImage.equals(oldImage)) setTableImage();
+
+		// Card images and drawing preferences may have changed
+		if (mStyle != null) restyle(mStyle.layout);
+		if (mDrawInitialized) invalidateAll();
 	}
 
 	/**
@@ -1008,30 +1553,27 @@ public class GameEngine extends Observable implements Runnable {
 
 	/** Sets the card back images as specified by {@link #mCardBackStyle}. */
 	private void setCardBackImage() {		
+		int sprite;
 		if (mCardBackStyle.equals("ap")) {
-			mCardBack = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.card_back);
+			sprite = CardImageCache.BACK_AP;
 		} else if (mCardBackStyle.equals("cb1_blue")){
-			mCardBack = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.cb1_blue);
+			sprite = CardImageCache.BACK_BLUE;
 		}  else if (mCardBackStyle.equals("cb1_fuscia")){
-			mCardBack = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.cb1_fuscia);
+			sprite = CardImageCache.BACK_FUSCIA;
 		} else if (mCardBackStyle.equals("cb1_gray")){
-			mCardBack = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.cb1_gray);
+			sprite = CardImageCache.BACK_GRAY;
 		} else if (mCardBackStyle.equals("cb1_green")){
-			mCardBack = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.cb1_green);
+			sprite = CardImageCache.BACK_GREEN;
 		} else if (mCardBackStyle.equals("cb1_orange")){
-			mCardBack = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.cb1_orange);
+			sprite = CardImageCache.BACK_ORANGE;
 		} else if (mCardBackStyle.equals("cb1_red")){
-			mCardBack = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.cb1_red);
+			sprite = CardImageCache.BACK_RED;
 		} else if (mCardBackStyle.equals("cb1_yellow")){
-			mCardBack = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.cb1_yellow);
+			sprite = CardImageCache.BACK_YELLOW;
 		} else {
-			mCardBack = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.card_backc);
+			sprite = CardImageCache.BACK_CLASSIC;
 		}
-
-		// For showing computer's card backs upside down
-		Matrix rotate = new Matrix();
-		rotate.postRotate(180);
-		mComputerCardBack = Bitmap.createBitmap(mCardBack, 0, 0, mCardBack.getWidth(), mCardBack.getHeight(), rotate, true);
+		mCardBack = CardImageCache.getTableSprite(mContext, sprite);
 	}
 
 	/** Sets the table background image as specified by {@link #mTableImage}. */
@@ -1048,7 +1590,33 @@ public class GameEngine extends Observable implements Runnable {
 		} else {
 			id = R.drawable.bg_wood;
 		}
-		mTable.setBackgroundResource(id);
+		mTableImageId = id;
+		if (mDrawInitialized) loadTableImage();
+	}
+
+	/**
+	 * Decodes the table image no larger than the table is drawn, unless
+	 * it has already been decoded for a table at least as big. Rotating
+	 * or shrinking the table just stretches the image already decoded.
+	 * Table images have no transparency, so they are decoded at 16 bits per pixel.
+	 */
+	private void loadTableImage() {
+		if (mTableImageId == 0 || mViewWidth <= 0 || mViewHeight <= 0) return;
+		if (mTableImageBitmap != null && mLoadedTableImageId == mTableImageId &&
+				(long)mLoadedTableWidth*mLoadedTableHeight >= (long)mViewWidth*mViewHeight) return;
+
+		Bitmap bitmap = BitmapBudget.decodeResource(mContext.getResources(), mTableImageId, Bitmap.Config.RGB_565, mViewWidth, mViewHeight);
+		if (bitmap == null) return;
+		// A frame may be drawing the old image, so it is only recycled once it is swapped out
+		Bitmap old = mTableImageBitmap;
+		mTableImageBitmap = bitmap;
+		synchronized (mDrawLock) {
+			mTableImageDrawable = new BitmapDrawable(mContext.getResources(), bitmap);
+		}
+		recycle(old);
+		mLoadedTableImageId = mTableImageId;
+		mLoadedTableWidth = mViewWidth;
+		mLoadedTableHeight = mViewHeight;
 	}
 
 	// Private methods
@@ -1058,7 +1626,9 @@ public class GameEngine extends Observable implements Runnable {
 	 */
 	private boolean restoreGame() {
 		try {
-			synchronized(Main.sDataLock) {
+			// The save is deleted once read, so nothing may read or write it in between
+			mSaveLock.lockWrite();
+			try {
 				FileInputStream fip = mContext.openFileInput(mSaveString);
 				ObjectInputStream in = new ObjectInputStream(fip);
 				mTurn = in.readInt();
@@ -1109,10 +1679,22 @@ public class GameEngine extends Observable implements Runnable {
 				if (mReplaceWithCard != null) mReplaceWithCard.setImage(mContext, mCardStyle);
 				mUndoPos = in.readInt();
 				mUndoIsSide = in.readBoolean();
+				
+				// Saves made before game history was kept end here
+				try {
+					mPlayTime = in.readLong();
+					mMoves = in.readInt();
+				} catch (EOFException e) {
+					mPlayTime = 0;
+					mMoves = 0;
+				}
+				mResumeTime = 0;
 
-				mContext.deleteFile(mSaveString);
 				in.close();
 				fip.close();
+				mContext.deleteFile(mSaveString);
+			} finally {
+				mSaveLock.unlockWrite();
 			}
 		} catch (FileNotFoundException e) {
 			mTable.post(new Runnable() {
@@ -1150,32 +1732,117 @@ public class GameEngine extends Observable implements Runnable {
 		return true;
 	}
 
+	/**
+	 * Makes a new snapshot of the game for drawing. Must be called after the
+	 * game changes and before asking the table to redraw.
+	 */
+	private void publishSnapshot() {
+		if (mDeck == null || mSides == null || mCorners == null || mHands == null) return;
+		mTableVersion++;
+		mSnapshot = new GameSnapshot(mSides, mCorners, mHands, mSelectedCard, mDeck.cardsLeft(),
+				mTurn, mWinner, mSelectedPile, mHighlightedPile, mDragX, mDragY, mHideHand, mShowComputerHand,
+				mCanUndo && mUndoCard != null, ++mSnapshotVersion, mTableVersion, mLaidOut ? mStyle : null, mPendingInputTime, mPendingInputDrag);
+		mPendingInputTime = 0;
+	}
+
+	/**
+	 * Makes a new snapshot of the game for drawing after a drag moved. Drags
+	 * come once a frame, so instead of copying the whole game only the drag
+	 * position, the highlight and, when a card is dragged, the current hand
+	 * are updated. The table layer is reused.
+	 */
+	private void publishDragSnapshot() {
+		GameSnapshot last = mSnapshot;
+		if (last == null || last.turn != mTurn) {
+			publishSnapshot();
+			return;
+		}
+		mSnapshot = new GameSnapshot(last, (mSelectedCard != null) ? mHands[mTurn] : null, mHighlightedPile,
+				mDragX, mDragY, ++mSnapshotVersion, mPendingInputTime, mPendingInputDrag);
+		mPendingInputTime = 0;
+	}
+
+	/** Makes a new snapshot of the game and redraws the whole table. */
+	private void invalidateAll() {
+		publishSnapshot();
+		mTable.postInvalidate();
+	}
+
+	/**
+	 * Redraws the area covered by a pile.
+	 * @param pile The pile to redraw.
+	 */
+	private void invalidatePile(Pile pile) {
+		if (!mDrawInitialized || pile == null || pile.pos == null) {
+			mTable.postInvalidate();
+			return;
+		}
+		pile.getBounds(mDirty, mCardWidth, mCardHeight);
+		mTable.postInvalidate(mDirty.left, mDirty.top, mDirty.right, mDirty.bottom);
+	}
+
+	/**
+	 * Redraws the area covered by a hand.
+	 * @param player The player whose hand to redraw.
+	 */
+	private void invalidateHand(int player) {
+		if (!mDrawInitialized || mHands[player] == null) {
+			mTable.postInvalidate();
+			return;
+		}
+		mHands[player].getBounds(mDirty, mCardHeight);
+		mTable.postInvalidate(mDirty.left, mDirty.top, mDirty.right, mDirty.bottom);
+	}
+
+	/**
+	 * Redraws the pile highlighted at the given position.
+	 * @param highlighted A value for {@link #mHighlightedPile}.
+	 */
+	private void invalidateHighlight(int highlighted) {
+		if (highlighted < 0) return;
+		if (highlighted <= 3) invalidatePile(mSides[highlighted]);
+		else invalidatePile(mCorners[highlighted-4]);
+	}
+
+	/**
+	 * Redraws the selected card or pile where it was last drawn and
+	 * where it will be drawn next, at {@link #mDragX} and {@link #mDragY}.
+	 */
+	private void invalidateDrag() {
+		// The selected pile's covering card is drawn a quarter card lower
+		mDirty.set(mDragX-(mCardWidth/2), mDragY-(mCardHeight/4), mDragX+(mCardWidth/2)+1, mDragY+mCardHeight);
+		if (!mDragBounds.isEmpty()) mDirty.union(mDragBounds);
+		mDragBounds.set(mDragX-(mCardWidth/2), mDragY-(mCardHeight/4), mDragX+(mCardWidth/2)+1, mDragY+mCardHeight);
+		mTable.postInvalidate(mDirty.left, mDirty.top, mDirty.right, mDirty.bottom);
+	}
+
 	/**
 	 * Highlights the pile at the position given by {@link #mHighlightedPile}. 
 	 * @param canvas The canvas to draw the highlight to.
+	 * @param s The snapshot being drawn.
 	 */
-	private void drawHighlighted(Canvas canvas) {
-		if (mHighlightedPile < 0) return;	
+	private void drawHighlighted(Canvas canvas, GameSnapshot s) {
+		if (s.highlightedPile < 0) return;	
 		// See if it is a corner or side to highlight
-		if (mHighlightedPile <= 3) {
+		if (s.highlightedPile <= 3) {
 			// Highlight side
-			if (mSelectedCard != null && !mSides[mHighlightedPile].playable(mSelectedCard)) return;		
-			else if (mSelectedPile >= 0 && !mSides[mSelectedPile].playable(mSides[mHighlightedPile])) return;
+			if (s.selectedCard != null && !s.sides[s.highlightedPile].playable(s.selectedCard)) return;		
+			else if (s.selectedPile >= 0 && !s.sides[s.selectedPile].playable(s.sides[s.highlightedPile])) return;
 
-			int rot = mSides[mHighlightedPile].mPileType;
+			int rot = s.sides[s.highlightedPile].mPileType;
 
-			if (rot == Pile.UP || rot == Pile.DOWN) mSides[mHighlightedPile].drawHighlighted(canvas, mGlowNormal, mCardHeight);
-			else if (rot == Pile.LEFT || rot == Pile.RIGHT) mSides[mHighlightedPile].drawHighlighted(canvas, mGlowSide, mCardHeight);
+			if (rot == Pile.UP || rot == Pile.DOWN) s.sides[s.highlightedPile].drawHighlighted(canvas, s.style.glowNormal, s.layout.cardHeight);
+			else if (rot == Pile.LEFT || rot == Pile.RIGHT) s.sides[s.highlightedPile].drawHighlighted(canvas, s.style.glowSide, s.layout.cardHeight);
 
 		} else {
 			// Highlight corner
-			if (mSelectedCard != null && !mCorners[mHighlightedPile-4].playable(mSelectedCard)) return;		
-			else if (mSelectedPile >= 0 && !mSides[mSelectedPile].playable(mCorners[mHighlightedPile-4])) return;
+			if (s.selectedCard != null && !s.corners[s.highlightedPile-4].playable(s.selectedCard)) return;		
+			else if (s.selectedPile >= 0 && !s.sides[s.selectedPile].playable(s.corners[s.highlightedPile-4])) return;
 
-			int rot = mCorners[mHighlightedPile-4].mPileType;
+			int rot = s.corners[s.highlightedPile-4].mPileType;
 
-			if (rot == Pile.UP_LEFT || rot == Pile.DOWN_RIGHT) mCorners[mHighlightedPile-4].drawHighlighted(canvas, mGlowCorner1, mCardHeight);
-			else if (rot == Pile.UP_RIGHT || rot == Pile.DOWN_LEFT) mCorners[mHighlightedPile-4].drawHighlighted(canvas, mGlowCorner2, mCardHeight);
+			if (rot == Pile.UP_LEFT || rot == Pile.DOWN_RIGHT) s.corners[s.highlightedPile-4].drawHighlighted(canvas, s.style.glowCorner1, s.layout.cardHeight);
+			else if (rot == Pile.UP_RIGHT || rot == Pile.DOWN_LEFT) s.corners[s.highlightedPile-4].drawHighlighted(canvas, s.style.glowCorner2, s.layout.cardHeight);
 		}
 
 	}
@@ -1190,42 +1857,22 @@ public class GameEngine extends Observable implements Runnable {
 	 * @see {@link #movePile(int)}
 	 */
 	private boolean findTargetPile() {
-		// Check sides
-		for (int i = 0; i < mSides.length; i++) {
-			if (mTarX >= mSides[i].pos.left-(mCardWidth/2) && mTarX <= mSides[i].pos.right+(mCardWidth/2) &&
-					mTarY >= mSides[i].pos.top-(mCardHeight/2) && mTarY <= mSides[i].pos.bottom+(mCardHeight/4)) {
-				if (mSelectedCard != null) {
-					return playCard(i);
-				} else if (mSelectedPile != -1) {
-					movePile(i);
-				} else if (mSides[i] != null){
-					mSelectedPile = i;
-				}
-			}
-		}
-
-		// Check corners
-		if (mTarX >= mSides[0].pos.left && mTarX <= mSides[1].pos.left-5) {
-			if (mTarY >= mSides[1].pos.top && mTarY <= mSides[0].pos.top-5) {
-				if (mSelectedCard != null || mSelectedPile >= 0) {
-					return playCorner(0);
-				}
-			}
-			else if (mTarY >= mSides[0].pos.bottom+5 && mTarY <= mSides[3].pos.bottom) {
-				if (mSelectedCard != null || mSelectedPile >= 0) {
-					return playCorner(3);
-				}
-			}
-		} else if (mTarX >= mSides[1].pos.right+5 && mTarX <= mSides[2].pos.right) {
-			if (mTarY >= mSides[1].pos.top-5 && mTarY <= mSides[2].pos.top) {
-				if (mSelectedCard != null || mSelectedPile >= 0) {
-					return playCorner(1);
-				}
-			} else if (mTarY >= mSides[2].pos.bottom+5 && mTarY <= mSides[3].pos.bottom) {
-				if (mSelectedCard != null || mSelectedPile >= 0) {
-					return playCorner(2);
-				}
+		TableLayout layout = mLayout;
+		int pile = (layout == null) ? PileHitMap.NONE : layout.hitMap.getPileAt(mTarX, mTarY);
+		if (pile == PileHitMap.NONE) return false;
+
+		if (pile <= 3) {
+			// Side
+			if (mSelectedCard != null) {
+				return playCard(pile);
+			} else if (mSelectedPile != -1) {
+				movePile(pile);
+			} else {
+				mSelectedPile = pile;
 			}
+		} else if (mSelectedCard != null || mSelectedPile >= 0) {
+			// Corner
+			return playCorner(pile-4);
 		}
 		return false;
 	}
@@ -1237,7 +1884,10 @@ public class GameEngine extends Observable implements Runnable {
 	 */
 	private void movePile(int dest) {
 		if (mSides[mSelectedPile].moveTo(mSides[dest])) {
+			animatePileDrop(mSelectedPile, true, dest);
+			mEvents.publish(new GameEvent.PileMoved(mTurn, mSelectedPile, true, dest));
 			mCanUndo = false;
+			mMoves++;
 		}
 	}
 
@@ -1252,18 +1902,23 @@ public class GameEngine extends Observable implements Runnable {
 			Card tempUndo = mSelectedCard;
 			Card tempReplace = mSides[dest].last;
 			if (mSides[dest].play(mSelectedCard)) {
+				animateDrop(mSelectedCard, true, dest);
+				mEvents.publish(new GameEvent.CardPlayed(mTurn, mSelectedCard, true, dest));
 				mCanUndo = true;
 				mUndoIsSide = true;
 				mUndoPos = dest;
 				mUndoCard = tempUndo;
 				mReplaceWithCard = tempReplace;
+				mMoves++;
 				return true;
 			}
 
 			for (int i = 0; i < mSides.length; i++) {
 				if (mSides[i].first == null) {
 					if (mSides[dest].playUnder(mSelectedCard)) {
+						mEvents.publish(new GameEvent.CardPlayed(mTurn, mSelectedCard, true, dest));
 						mCanUndo = false;
+						mMoves++;
 						return true;
 					}
 				}
@@ -1283,21 +1938,105 @@ public class GameEngine extends Observable implements Runnable {
 			Card tempUndo = mSelectedCard;
 			Card tempReplace = mCorners[dest].last;
 			if (mCorners[dest].play(mSelectedCard)) {
+				animateDrop(mSelectedCard, false, dest);
+				mEvents.publish(new GameEvent.CardPlayed(mTurn, mSelectedCard, false, dest));
 				mCanUndo = true;
 				mUndoIsSide = false;
 				mUndoPos = dest;
 				mUndoCard = tempUndo;
 				mReplaceWithCard = tempReplace;
+				mMoves++;
 				return true;
 			}
 		} else if (mSelectedPile >= 0) {
 			if (mSides[mSelectedPile].moveTo(mCorners[dest])) {
+				animatePileDrop(mSelectedPile, false, dest);
+				mEvents.publish(new GameEvent.PileMoved(mTurn, mSelectedPile, false, dest));
 				mCanUndo = false;
+				mMoves++;
 			}
 		}
 		return false;
 	}
 
+	/**
+	 * Shows the top card of a side pile the computer just moved sliding onto
+	 * the pile it was moved to. The move must already have been made.
+	 * @param from The side pile the cards were moved from.
+	 * @param side True if the cards were moved onto a side pile, false for a corner pile.
+	 * @param dest The pile the cards were moved onto.
+	 */
+	private void animateFromPile(int from, boolean side, int dest) {
+		// The last snapshot still has the pile as it was before the move
+		GameSnapshot s = mSnapshot;
+		if (s == null || s.sides[from].first == null) return;
+		Pile pile = s.sides[from];
+		Point start = new Point();
+		pile.getTopPosition(start, mCardHeight);
+		animateMove((pile.last != null) ? pile.last : pile.first, start.x, start.y, pile.getRotation(), side, dest,
+				Math.min(COMPUTER_MOVE_MILLIS, mComputerDelay));
+	}
+
+	/**
+	 * Shows a card the computer just played from its hand sliding onto a pile.
+	 * @param card The card that was played.
+	 * @param side True if the card was played on a side pile, false for a corner pile.
+	 * @param dest The pile the card was played on.
+	 */
+	private void animateFromHand(Card card, boolean side, int dest) {
+		animateMove(card, card.getX(), card.getY(), 0, side, dest, Math.min(COMPUTER_MOVE_MILLIS, mComputerDelay));
+	}
+
+	/**
+	 * Shows a card the player just dropped sliding from where it was dropped onto a pile.
+	 * @param card The card that was dropped.
+	 * @param side True if the card was dropped on a side pile, false for a corner pile.
+	 * @param dest The pile the card was dropped on.
+	 */
+	private void animateDrop(Card card, boolean side, int dest) {
+		animateMove(card, mTarX-(mCardWidth/2), mTarY-(mCardHeight/4), 0, side, dest, DROP_MILLIS);
+	}
+
+	/**
+	 * Shows the top card of a side pile the player just dropped sliding from
+	 * where it was dropped onto the pile it was moved to.
+	 * @param from The side pile that was dropped.
+	 * @param side True if the pile was dropped on a side pile, false for a corner pile.
+	 * @param dest The pile the pile was dropped on.
+	 */
+	private void animatePileDrop(int from, boolean side, int dest) {
+		// The last snapshot still has the pile as it was dragged
+		GameSnapshot s = mSnapshot;
+		if (s == null || s.sides[from].first == null) return;
+		Pile pile = s.sides[from];
+		// The covering card is drawn a quarter card lower, the same as Pile.drawSelected
+		if (pile.last != null) animateMove(pile.last, mTarX-(mCardWidth/2), mTarY, 0, side, dest, DROP_MILLIS);
+		else animateMove(pile.first, mTarX-(mCardWidth/2), mTarY-(mCardHeight/4), 0, side, dest, DROP_MILLIS);
+	}
+
+	/**
+	 * Shows a card sliding onto a pile after it has been moved there. The
+	 * pile is drawn as it was in the last snapshot until the card gets there.
+	 * Must be called before the snapshot with the move is published.
+	 * @param card The card that was moved.
+	 * @param fromLeft The left side of the box around the card where it started.
+	 * @param fromTop The top of the box around the card where it started.
+	 * @param fromRotation The rotation of the card where it started.
+	 * @param side True if the card was moved onto a side pile, false for a corner pile.
+	 * @param dest The pile the card was moved onto.
+	 * @param duration How long the card takes to get there, in milliseconds.
+	 */
+	private void animateMove(Card card, int fromLeft, int fromTop, int fromRotation, boolean side, int dest, long duration) {
+		GameSnapshot s = mSnapshot;
+		if (!mDrawInitialized || s == null || card == null || duration <= 0) return;
+
+		Pile pile = side ? mSides[dest] : mCorners[dest];
+		Point end = new Point();
+		pile.getTopPosition(end, mCardHeight);
+		mAnimator.animate(card.copy(), fromLeft, fromTop, fromRotation, end.x, end.y, pile.getRotation(),
+				side, dest, side ? s.sides[dest] : s.corners[dest], duration);
+	}
+
 	/**
 	 * Finds the pile to be highlighted, if there is one, and sets
 	 * {@link #mHighlightedPile} to the correct value.
@@ -1305,33 +2044,8 @@ public class GameEngine extends Observable implements Runnable {
 	private void highlightPile() {
 		if (mSelectedCard == null && mSelectedPile < 0) return; 	// Make sure there is a card or pile being moved
 
-		// Check sides
-		mHighlightedPile = -1;
-		for (int i = 0; i < mSides.length; i++) {
-			if (mTarX >= mSides[i].pos.left-(mCardWidth/2) && mTarX <= mSides[i].pos.right+(mCardWidth/2) &&
-					mTarY >= mSides[i].pos.top-(mCardHeight/2) && mTarY <= mSides[i].pos.bottom+(mCardHeight/4)) {
-				mHighlightedPile = i;
-			}
-		}
-		
-		// If a side is highlighted, don't bother trying to highlight a corner
-		if (mHighlightedPile >= 0) return;
-		
-		// Check corners
-		if (mTarX >= mSides[0].pos.left && mTarX <= mSides[1].pos.left-5) {
-			if (mTarY >= mSides[1].pos.top && mTarY <= mSides[0].pos.top-5) {
-				mHighlightedPile = 4;
-			}
-			else if (mTarY >= mSides[0].pos.bottom+5 && mTarY <= mSides[3].pos.bottom) {
-				mHighlightedPile = 7;
-			}
-		} else if (mTarX >= mSides[1].pos.right+5 && mTarX <= mSides[2].pos.right) {
-			if (mTarY >= mSides[1].pos.top-5 && mTarY <= mSides[2].pos.top) {
-				mHighlightedPile = 5;
-			} else if (mTarY >= mSides[2].pos.bottom+5 && mTarY <= mSides[3].pos.bottom) {
-				mHighlightedPile = 6;
-			}
-		}
+		TableLayout layout = mLayout;
+		mHighlightedPile = (layout == null) ? PileHitMap.NONE : layout.hitMap.getPileAt(mTarX, mTarY);
 	}
 
 	/**
@@ -1339,12 +2053,11 @@ public class GameEngine extends Observable implements Runnable {
 	 * @return True if the computer has won, false otherwise.
 	 */
 	private boolean compWin() {
-		mTable.postInvalidate();
 		if (mPlayerCount == 1 && mHands[1].getCardCount() == 0) {
 			if (mUsername != null && !mUsername.equals(mContext.getResources().getString(R.string.username_none)) && !mUsername.equals("")) {
 				StatsManager sm = new StatsManager(mContext);
 				try {
-					sm.playerFinishedGame(mUsername, false);
+					sm.playerFinishedGame(mUsername, gameRecord(GameRecord.WINNER_COMPUTER));
 				} catch (StreamCorruptedException e) {
 				} catch (FileNotFoundException e) {
 				} catch (IOException e) {
@@ -1352,9 +2065,9 @@ public class GameEngine extends Observable implements Runnable {
 			}
 			mCanUndo = false;
 			mWinner = 1;
-			setChanged();
-			notifyObservers();
-			mTable.postInvalidate();
+			// Listeners read the winner from the snapshot
+			invalidateAll();
+			mEvents.publish(new GameEvent.GameWon(mWinner));
 			return true;
 		}
 		return false;
@@ -1370,7 +2083,7 @@ public class GameEngine extends Observable implements Runnable {
 			if (mPlayerCount == 1 && mUsername != null && !mUsername.equals(mContext.getResources().getString(R.string.username_none)) && !mUsername.equals("")) {
 				StatsManager sm = new StatsManager(mContext);
 				try {
-					sm.playerFinishedGame(mUsername, true);
+					sm.playerFinishedGame(mUsername, gameRecord(GameRecord.WINNER_PLAYER));
 				} catch (StreamCorruptedException e) {
 				} catch (FileNotFoundException e) {
 				} catch (IOException e) {
@@ -1378,11 +2091,23 @@ public class GameEngine extends Observable implements Runnable {
 			}
 			mCanUndo = false;
 			mWinner = mTurn;
-			setChanged();
-			notifyObservers();
-			mTable.postInvalidate();
+			// Listeners read the winner from the snapshot
+			invalidateAll();
+			mEvents.publish(new GameEvent.GameWon(mWinner));
 			return true;
 		}
 		return false;
 	}
+
+	/**
+	 * Creates a record of the current single player game for the player's history.
+	 * @param winner The winner of the game, one of {@link GameRecord#WINNER_PLAYER}
+	 * 			or {@link GameRecord#WINNER_COMPUTER}.
+	 * @return The record of the current game.
+	 */
+	private GameRecord gameRecord(int winner) {
+		long duration = Math.min(playTime(), Integer.MAX_VALUE);
+		return new GameRecord(System.currentTimeMillis(), mDifficulty, (int)duration,
+				mHands[0].getCardCount(), mMoves, winner);
+	}
 }
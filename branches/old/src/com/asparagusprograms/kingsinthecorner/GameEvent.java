@@ -0,0 +1,128 @@
+/**
+ * Copyright 2010,2011 Trevor Boyce
+ *
+ * This file is part of Kings in the Corner.
+ *
+ *    Kings in the Corner is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    Kings in the Corner is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with Kings in the Corner.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.asparagusprograms.kingsinthecorner;
+
+/**
+ * Something that happened in a game, sent to listeners by a {@link GameEventBus}.
+ * Each kind of event has its own class and its own type bit, so a listener
+ * can ask for only the kinds it cares about. Events never change once made.
+ */
+public abstract class GameEvent {
+	/** Type bits for each kind of event, to be combined when subscribing. */
+	public static final int TURN_STARTED = 1,
+							CARD_PLAYED = 2,
+							PILE_MOVED = 4,
+							DECK_EMPTY = 8,
+							GAME_WON = 16,
+							GAME_STARTED = 32;
+
+	/** Every kind of event. */
+	public static final int ALL = TURN_STARTED | CARD_PLAYED | PILE_MOVED | DECK_EMPTY | GAME_WON | GAME_STARTED;
+
+	/** The kind of event, one of the type bits such as {@link #TURN_STARTED}. */
+	public final int type;
+
+	private GameEvent(int type) {
+		this.type = type;
+	}
+
+	/** A player's turn has started. */
+	public static final class TurnStarted extends GameEvent {
+		/** The player whose turn it is. In a single player game, 1 is the computer. */
+		public final int player;
+
+		TurnStarted(int player) {
+			super(TURN_STARTED);
+			this.player = player;
+		}
+	}
+
+	/** A card was played from a player's hand. */
+	public static final class CardPlayed extends GameEvent {
+		/** The player who played the card. In a single player game, 1 is the computer. */
+		public final int player;
+		/** The suit of the card. */
+		public final int suit;
+		/** The value of the card. */
+		public final int value;
+		/** True if the card was played on a side pile, false for a corner pile. */
+		public final boolean side;
+		/** The pile the card was played on. */
+		public final int pile;
+
+		CardPlayed(int player, Card card, boolean side, int pile) {
+			super(CARD_PLAYED);
+			this.player = player;
+			this.suit = card.getSuit();
+			this.value = card.getValue();
+			this.side = side;
+			this.pile = pile;
+		}
+	}
+
+	/** A side pile was moved onto another pile. */
+	public static final class PileMoved extends GameEvent {
+		/** The player who moved the pile. In a single player game, 1 is the computer. */
+		public final int player;
+		/** The side pile that was moved. */
+		public final int from;
+		/** True if the pile was moved onto a side pile, false for a corner pile. */
+		public final boolean side;
+		/** The pile it was moved onto. */
+		public final int dest;
+
+		PileMoved(int player, int from, boolean side, int dest) {
+			super(PILE_MOVED);
+			this.player = player;
+			this.from = from;
+			this.side = side;
+			this.dest = dest;
+		}
+	}
+
+	/** The last card in the deck has been dealt. Only sent once a game. */
+	public static final class DeckEmpty extends GameEvent {
+		DeckEmpty() {
+			super(DECK_EMPTY);
+		}
+	}
+
+	/** A saved game was restored or a new game is being dealt. */
+	public static final class GameStarted extends GameEvent {
+		/** True if a saved game was restored, false for a new game. */
+		public final boolean restored;
+
+		GameStarted(boolean restored) {
+			super(GAME_STARTED);
+			this.restored = restored;
+		}
+	}
+
+	/** A player has won the game. */
+	public static final class GameWon extends GameEvent {
+		/** The player who won. In a single player game, 1 is the computer. */
+		public final int winner;
+
+		GameWon(int winner) {
+			super(GAME_WON);
+			this.winner = winner;
+		}
+	}
+}
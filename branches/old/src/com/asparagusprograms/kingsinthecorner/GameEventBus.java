@@ -0,0 +1,171 @@
+/**
+ * Copyright 2010,2011 Trevor Boyce
+ *
+ * This file is part of Kings in the Corner.
+ *
+ *    Kings in the Corner is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    Kings in the Corner is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with Kings in the Corner.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.asparagusprograms.kingsinthecorner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+/**
+ * Sends {@link GameEvent}s from a {@link GameLoop} to listeners. Each listener
+ * is called on its own thread: the thread of the handler it subscribed with,
+ * such as the UI thread, or a thread of its own. Events are batched, so all
+ * the events a listener wants from the commands run since the last batch are
+ * sent in one call, in the order they happened. A slow listener only holds up
+ * its own batches, never the game or other listeners.
+ */
+public class GameEventBus {
+	/** Gets batches of events. */
+	public interface Listener {
+		/**
+		 * Called with the events that happened since the last batch.
+		 * @param events The events, oldest first. Never empty.
+		 */
+		public void onGameEvents(List<GameEvent> events);
+	}
+
+	/** The loop events are sent from. */
+	private final GameLoop mLoop;
+
+	/** Everyone listening. Changed from any thread, read on the loop. */
+	private final CopyOnWriteArrayList<Subscriber> mSubscribers = new CopyOnWriteArrayList<Subscriber>();
+
+	/** Events not sent yet. Only used on the loop. */
+	private final ArrayList<GameEvent> mPending = new ArrayList<GameEvent>();
+
+	/** Sends the pending events. */
+	private final Runnable mFlush = new Runnable() {
+		public void run() {
+			flush();
+		}
+	};
+
+	/**
+	 * Constructs a bus for the events of a game loop.
+	 * @param loop The loop events are published on.
+	 */
+	public GameEventBus(GameLoop loop) {
+		mLoop = loop;
+	}
+
+	/**
+	 * Starts sending events to a listener. May be called from any thread.
+	 * @param listener The listener to send events to.
+	 * @param types The kinds of event to send, type bits such as {@link GameEvent#TURN_STARTED} combined.
+	 * @param handler The handler whose thread calls the listener, or null to call
+	 * 			it on a thread of its own, which ends when it is unsubscribed.
+	 */
+	public void subscribe(Listener listener, int types, Handler handler) {
+		HandlerThread thread = null;
+		if (handler == null) {
+			thread = new HandlerThread("GameEvents");
+			thread.start();
+			handler = new Handler(thread.getLooper());
+		}
+		mSubscribers.add(new Subscriber(listener, types, handler, thread));
+	}
+
+	/**
+	 * Stops sending events to a listener. Batches already on their way are dropped.
+	 * May be called from any thread.
+	 * @param listener The listener to stop sending events to.
+	 */
+	public void unsubscribe(Listener listener) {
+		for (Subscriber s : mSubscribers) {
+			if (s.listener == listener) {
+				mSubscribers.remove(s);
+				s.close();
+			}
+		}
+	}
+
+	/** Stops sending events to every listener. May be called from any thread. */
+	public void clear() {
+		for (Subscriber s : mSubscribers) {
+			mSubscribers.remove(s);
+			s.close();
+		}
+	}
+
+	/**
+	 * Queues an event to be sent once the commands already posted to the loop
+	 * have run. Must be called on the loop.
+	 * @param event The event.
+	 */
+	public void publish(GameEvent event) {
+		if (mPending.isEmpty()) mLoop.post(mFlush);
+		mPending.add(event);
+	}
+
+	/** Sends each listener one batch of the pending events it wants. */
+	private void flush() {
+		for (Subscriber s : mSubscribers) {
+			ArrayList<GameEvent> batch = null;
+			for (int i = 0; i < mPending.size(); i++) {
+				GameEvent event = mPending.get(i);
+				if ((event.type & s.types) == 0) continue;
+				if (batch == null) batch = new ArrayList<GameEvent>();
+				batch.add(event);
+			}
+			if (batch != null) s.send(Collections.unmodifiableList(batch));
+		}
+		mPending.clear();
+	}
+
+	/** A listener and where to call it. */
+	private static class Subscriber {
+		/** The listener. */
+		final Listener listener;
+		/** The kinds of event it wants. */
+		final int types;
+		/** Calls the listener. */
+		final Handler handler;
+		/** The thread made for the listener, or null if it came with a handler. */
+		final HandlerThread thread;
+		/** False once unsubscribed, so batches still queued are dropped. */
+		volatile boolean active = true;
+
+		Subscriber(Listener listener, int types, Handler handler, HandlerThread thread) {
+			this.listener = listener;
+			this.types = types;
+			this.handler = handler;
+			this.thread = thread;
+		}
+
+		/** Calls the listener with a batch on its thread. */
+		void send(final List<GameEvent> batch) {
+			handler.post(new Runnable() {
+				public void run() {
+					if (active) listener.onGameEvents(batch);
+				}
+			});
+		}
+
+		/** Stops calling the listener and ends its thread, if it has one. */
+		void close() {
+			active = false;
+			if (thread != null) thread.quit();
+		}
+	}
+}
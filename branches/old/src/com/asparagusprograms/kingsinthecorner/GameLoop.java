@@ -0,0 +1,203 @@
+/**
+ * Copyright 2010,2011 Trevor Boyce
+ *
+ * This file is part of Kings in the Corner.
+ *
+ *    Kings in the Corner is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    Kings in the Corner is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with Kings in the Corner.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.asparagusprograms.kingsinthecorner;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+import android.util.Log;
+
+/**
+ * A single thread that runs commands one at a time, in the order they
+ * were posted. Any thread may post a command. Commands go through a
+ * lock-free queue, so posting never blocks and never waits on a command
+ * that is running.
+ * <p>
+ * Everything a {@link GameEngine} changes is only changed by commands on
+ * its loop, so the game never needs locking. How long each command waits
+ * and runs is recorded with {@link InputLatency#recordCommand(long)}.
+ * A command that throws is logged and skipped, so the loop keeps going.
+ * <p>
+ * Delays are measured on the loop's {@link GameClock}.
+ */
+public class GameLoop implements Runnable {
+	/** The tag used when logging failed commands. */
+	private static final String TAG = "GameLoop";
+
+	/** Commands posted from any thread, not yet seen by the loop. */
+	private final ConcurrentLinkedQueue<Command> mPosted = new ConcurrentLinkedQueue<Command>();
+
+	/** Commands that are not due yet, soonest first. Only used by the loop thread. */
+	private final PriorityQueue<Command> mDelayed = new PriorityQueue<Command>();
+
+	/** The thread running the commands. */
+	private final Thread mThread;
+
+	/** The clock delays are measured on. */
+	private final GameClock mClock;
+
+	/** Set once the loop should end. */
+	private volatile boolean mQuit;
+
+	/** Numbers commands so ones due at the same time run in the order they were posted. */
+	private long mSequence;
+
+	/**
+	 * Starts a new loop.
+	 * @param name The name of the loop's thread.
+	 * @param clock The clock delays are measured on.
+	 */
+	public GameLoop(String name, GameClock clock) {
+		mClock = clock;
+		mThread = new Thread(this, name);
+		mThread.start();
+	}
+
+	/**
+	 * Runs a command on the loop after every command already posted.
+	 * @param command The command to run.
+	 */
+	public void post(Runnable command) {
+		postAt(command, mClock.uptimeMillis());
+	}
+
+	/**
+	 * Runs a command on the loop after a delay.
+	 * @param command The command to run.
+	 * @param delayMillis How long to wait before running the command, in milliseconds.
+	 */
+	public void postDelayed(Runnable command, long delayMillis) {
+		postAt(command, mClock.uptimeMillis() + Math.max(delayMillis, 0));
+	}
+
+	/**
+	 * Drops every copy of a command that hasn't run yet, delayed or not.
+	 * Called on the loop, they are dropped before this returns. Called
+	 * from any other thread, they are dropped once the commands already
+	 * due have run.
+	 * @param command The command to drop.
+	 */
+	public void remove(final Runnable command) {
+		if (!isLoopThread()) {
+			post(new Runnable() {
+				public void run() {
+					remove(command);
+				}
+			});
+			return;
+		}
+
+		takePosted();
+		Iterator<Command> it = mDelayed.iterator();
+		while (it.hasNext()) {
+			if (it.next().action == command) it.remove();
+		}
+	}
+
+	/**
+	 * Gets the current time on the loop's clock.
+	 * @return The time in milliseconds.
+	 */
+	public long uptimeMillis() {
+		return mClock.uptimeMillis();
+	}
+
+	/**
+	 * Gets whether the calling thread is the loop's thread.
+	 * @return True if called from a command.
+	 */
+	public boolean isLoopThread() {
+		return Thread.currentThread() == mThread;
+	}
+
+	/**
+	 * Ends the loop once every command already posted has run. Commands
+	 * still waiting on a delay and commands posted afterwards never run.
+	 */
+	public void quit() {
+		post(new Runnable() {
+			public void run() {
+				mQuit = true;
+			}
+		});
+	}
+
+	/** Queues a command and wakes the loop. */
+	private void postAt(Runnable command, long when) {
+		mPosted.offer(new Command(command, when));
+		LockSupport.unpark(mThread);
+	}
+
+	@Override
+	public void run() {
+		while (!mQuit) {
+			takePosted();
+			Command next = mDelayed.peek();
+			if (next == null) {
+				LockSupport.park(this);
+			} else if (next.when > mClock.uptimeMillis()) {
+				mClock.waitUntil(next.when);
+			} else {
+				mDelayed.poll();
+				try {
+					next.action.run();
+				} catch (RuntimeException e) {
+					Log.e(TAG, "Command failed", e);
+				}
+				InputLatency.recordCommand(mClock.uptimeMillis() - next.when);
+			}
+		}
+		// Nothing left will ever run
+		mDelayed.clear();
+		mPosted.clear();
+	}
+
+	/** Takes everything posted since last time, in order. Only called on the loop. */
+	private void takePosted() {
+		Command posted;
+		while ((posted = mPosted.poll()) != null) {
+			posted.sequence = mSequence++;
+			mDelayed.add(posted);
+		}
+	}
+
+	/** A command and when it is due. */
+	private static class Command implements Comparable<Command> {
+		/** What to run. */
+		final Runnable action;
+		/** When to run it, in milliseconds of the loop's clock. */
+		final long when;
+		/** The order the loop took the command in. */
+		long sequence;
+
+		Command(Runnable action, long when) {
+			this.action = action;
+			this.when = when;
+		}
+
+		public int compareTo(Command other) {
+			if (when != other.when) return (when < other.when) ? -1 : 1;
+			if (sequence != other.sequence) return (sequence < other.sequence) ? -1 : 1;
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright 2010,2011 Trevor Boyce
+ *
+ * This file is part of Kings in the Corner.
+ *
+ *    Kings in the Corner is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    Kings in the Corner is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with Kings in the Corner.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.asparagusprograms.kingsinthecorner;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A compact record of a single finished game. Records are written
+ * to a player's history file with a fixed size so the file can be
+ * appended to and read from the end without scanning it.
+ */
+public class GameRecord {
+	/** The number of bytes a record takes up when written to a file. */
+	public static final int RECORD_SIZE = 8 + 4 + 1 + 1 + 2 + 1;
+
+	/** Winner value for a game won by the human player. */
+	public static final int WINNER_PLAYER = 0;
+	/** Winner value for a game won by the computer player. */
+	public static final int WINNER_COMPUTER = 1;
+
+	/** The time the game finished in milliseconds since the epoch. */
+	private final long mTimestamp;
+	/** The difficulty the game was played on. */
+	private final int mDifficulty;
+	/** The number of milliseconds the game was played for. */
+	private final int mDuration;
+	/** The number of cards left in the human player's hand. */
+	private final int mCardsLeft;
+	/** The number of moves the human player made. */
+	private final int mMoves;
+	/** The winner of the game, one of {@link #WINNER_PLAYER} or {@link #WINNER_COMPUTER}. */
+	private final int mWinner;
+
+	/**
+	 * Constructs a new game record.
+	 * @param timestamp The time the game finished in milliseconds since the epoch.
+	 * @param difficulty The difficulty the game was played on.
+	 * @param duration The number of milliseconds the game was played for.
+	 * @param cardsLeft The number of cards left in the human player's hand.
+	 * @param moves The number of moves the human player made.
+	 * @param winner The winner of the game.
+	 */
+	public GameRecord(long timestamp, int difficulty, int duration, int cardsLeft, int moves, int winner) {
+		mTimestamp = timestamp;
+		mDifficulty = difficulty;
+		mDuration = duration;
+		mCardsLeft = cardsLeft;
+		mMoves = moves;
+		mWinner = winner;
+	}
+
+	/**
+	 * Gets the time the game finished.
+	 * @return The time the game finished in milliseconds since the epoch.
+	 */
+	public long getTimestamp() {
+		return mTimestamp;
+	}
+
+	/**
+	 * Gets the difficulty the game was played on.
+	 * @return The difficulty the game was played on.
+	 */
+	public int getDifficulty() {
+		return mDifficulty;
+	}
+
+	/**
+	 * Gets how long the game was played for.
+	 * @return The number of milliseconds the game was played for.
+	 */
+	public int getDuration() {
+		return mDuration;
+	}
+
+	/**
+	 * Gets the number of cards left in the human player's hand.
+	 * @return The number of cards left. Zero if the player won.
+	 */
+	public int getCardsLeft() {
+		return mCardsLeft;
+	}
+
+	/**
+	 * Gets the number of moves the human player made.
+	 * @return The number of moves the human player made.
+	 */
+	public int getMoves() {
+		return mMoves;
+	}
+
+	/**
+	 * Gets the winner of the game.
+	 * @return One of {@link #WINNER_PLAYER} or {@link #WINNER_COMPUTER}.
+	 */
+	public int getWinner() {
+		return mWinner;
+	}
+
+	/**
+	 * Gets whether or not the human player won the game.
+	 * @return True if the human player won, false otherwise.
+	 */
+	public boolean playerWon() {
+		return (mWinner == WINNER_PLAYER);
+	}
+
+	/**
+	 * Writes this record, taking exactly {@link #RECORD_SIZE} bytes.
+	 * @param out The output to write to.
+	 * @throws IOException if an I/O error occurs while writing.
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeLong(mTimestamp);
+		out.writeInt(mDuration);
+		out.writeByte(mDifficulty);
+		out.writeByte(Math.min(mCardsLeft, 255));
+		out.writeShort(Math.min(mMoves, Short.MAX_VALUE));
+		out.writeByte(mWinner);
+	}
+
+	/**
+	 * Reads a record written by {@link #write(DataOutput)}.
+	 * @param in The input to read from.
+	 * @return The record read.
+	 * @throws IOException if an I/O error occurs while reading.
+	 */
+	public static GameRecord read(DataInput in) throws IOException {
+		long timestamp = in.readLong();
+		int duration = in.readInt();
+		int difficulty = in.readUnsignedByte();
+		int cardsLeft = in.readUnsignedByte();
+		int moves = in.readShort();
+		int winner = in.readUnsignedByte();
+
+		return new GameRecord(timestamp, difficulty, duration, cardsLeft, moves, winner);
+	}
+}
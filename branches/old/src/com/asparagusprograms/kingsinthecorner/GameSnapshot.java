@@ -0,0 +1,153 @@
+/**
+ * Copyright 2010,2011 Trevor Boyce
+ * 
+ * This file is part of Kings in the Corner.
+ *
+ *    Kings in the Corner is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    Kings in the Corner is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with Kings in the Corner.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.asparagusprograms.kingsinthecorner;
+
+/**
+ * A copy of everything about a game that changes while it is drawn.
+ * The {@link GameEngine} makes a new snapshot every time the game changes
+ * and the table is drawn from the newest one, so drawing never sees a
+ * move half made and never has to lock the game. Snapshots and the piles,
+ * hands and cards in them must never be changed once made, except for
+ * the drawing positions set while they are being drawn, so snapshots
+ * made during a drag share everything the drag doesn't change.
+ */
+public final class GameSnapshot {
+	/** Copies of the side piles. */
+	public final Pile[] sides;
+	/** Copies of the corner piles. */
+	public final Pile[] corners;
+	/** Copies of each player's hand. */
+	public final Hand[] hands;
+	/** A copy of the selected card, or null if no card is selected. */
+	public final Card selectedCard;
+	/** The number of cards left in the deck. */
+	public final int cardsLeft;
+	/** The current player. */
+	public final int turn;
+	/** The winner of the game, or -1 if nobody has won. */
+	public final int winner;
+	/** The selected pile, or -1 if no pile is selected. */
+	public final int selectedPile;
+	/** The pile to highlight, or -1 if there is no pile to highlight. */
+	public final int highlightedPile;
+	/** The x-coordinate of the user's touch. */
+	public final int tarX;
+	/** The y-coordinate of the user's touch. */
+	public final int tarY;
+	/** True if the current hand is hidden. */
+	public final boolean hideHand;
+	/** True if the computer's hand is shown face up. */
+	public final boolean showComputerHand;
+	/** True if the current player's last move can be undone. */
+	public final boolean canUndo;
+	/** Increases by one with each snapshot published, so a reader can tell which snapshots it has seen. */
+	public final int version;
+	/**
+	 * Changes whenever anything but the current hand, the highlight or the
+	 * dragged card or pile changed, so the table can be drawn again.
+	 */
+	public final int tableVersion;
+	/** Where everything goes on the table, or null if the cards haven't been placed yet. */
+	public final TableLayout layout;
+	/** What the table is drawn with, or null if the cards haven't been placed yet. */
+	public final TableStyle style;
+	/** The time of the oldest touch first shown by this snapshot, or 0 if there isn't one. */
+	public final long inputTime;
+	/** True if {@link #inputTime} is for a move while dragging. */
+	public final boolean inputDrag;
+
+	/**
+	 * Makes a snapshot of a game. The piles, hands and selected card are copied,
+	 * so the game can keep changing after this returns.
+	 */
+	GameSnapshot(Pile[] sides, Pile[] corners, Hand[] hands, Card selectedCard, int cardsLeft,
+			int turn, int winner, int selectedPile, int highlightedPile, int tarX, int tarY,
+			boolean hideHand, boolean showComputerHand, boolean canUndo, int version, int tableVersion, TableStyle style,
+			long inputTime, boolean inputDrag) {
+		this.sides = copy(sides);
+		this.corners = copy(corners);
+		this.hands = new Hand[hands.length];
+		for (int i = 0; i < hands.length; i++) {
+			if (hands[i] != null) this.hands[i] = hands[i].copy();
+		}
+		this.selectedCard = (selectedCard == null) ? null : selectedCard.copy();
+		this.cardsLeft = cardsLeft;
+		this.turn = turn;
+		this.winner = winner;
+		this.selectedPile = selectedPile;
+		this.highlightedPile = highlightedPile;
+		this.tarX = tarX;
+		this.tarY = tarY;
+		this.hideHand = hideHand;
+		this.showComputerHand = showComputerHand;
+		this.canUndo = canUndo;
+		this.version = version;
+		this.tableVersion = tableVersion;
+		this.style = style;
+		this.layout = (style == null) ? null : style.layout;
+		this.inputTime = inputTime;
+		this.inputDrag = inputDrag;
+	}
+
+	/**
+	 * Makes a snapshot of a drag from the last snapshot. Only the current hand
+	 * is copied, and only if the drag changed it. Everything else is shared
+	 * with the last snapshot, since a drag doesn't change it.
+	 * @param last The last snapshot made.
+	 * @param hand The current player's hand, or null if the drag didn't change it.
+	 */
+	GameSnapshot(GameSnapshot last, Hand hand, int highlightedPile, int tarX, int tarY, int version,
+			long inputTime, boolean inputDrag) {
+		this.sides = last.sides;
+		this.corners = last.corners;
+		if (hand != null) {
+			this.hands = last.hands.clone();
+			this.hands[last.turn] = hand.copy();
+		} else {
+			this.hands = last.hands;
+		}
+		this.selectedCard = last.selectedCard;
+		this.cardsLeft = last.cardsLeft;
+		this.turn = last.turn;
+		this.winner = last.winner;
+		this.selectedPile = last.selectedPile;
+		this.highlightedPile = highlightedPile;
+		this.tarX = tarX;
+		this.tarY = tarY;
+		this.hideHand = last.hideHand;
+		this.showComputerHand = last.showComputerHand;
+		this.canUndo = last.canUndo;
+		this.version = version;
+		this.tableVersion = last.tableVersion;
+		this.style = last.style;
+		this.layout = last.layout;
+		this.inputTime = inputTime;
+		this.inputDrag = inputDrag;
+	}
+
+	/** Copies an array of piles and each pile in it. */
+	private static Pile[] copy(Pile[] piles) {
+		Pile[] copy = new Pile[piles.length];
+		for (int i = 0; i < piles.length; i++) {
+			if (piles[i] != null) copy[i] = piles[i].copy();
+		}
+		return copy;
+	}
+}
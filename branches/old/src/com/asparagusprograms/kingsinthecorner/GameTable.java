@@ -0,0 +1,74 @@
+/**
+ * Copyright 2010,2011 Trevor Boyce
+ * 
+ * This file is part of Kings in the Corner.
+ *
+ *    Kings in the Corner is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    Kings in the Corner is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with Kings in the Corner.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.asparagusprograms.kingsinthecorner;
+
+/**
+ * The view a {@link GameEngine} draws the game to. The engine only asks
+ * for parts of the table to be redrawn, when and on which thread the
+ * drawing happens is up to the table.
+ * @see CardTableView
+ * @see CardTableSurfaceView
+ */
+public interface GameTable {
+	/**
+	 * Sets the game engine used to draw the game.
+	 * @param ge The game engine to use to draw the game.
+	 */
+	public void setGameEngine(GameEngine ge);
+
+	/** Redraws the whole table. May be called from any thread. */
+	public void postInvalidate();
+
+	/**
+	 * Redraws part of the table. May be called from any thread.
+	 * @param left The left side of the area to redraw.
+	 * @param top The top of the area to redraw.
+	 * @param right The right side of the area to redraw.
+	 * @param bottom The bottom of the area to redraw.
+	 */
+	public void postInvalidate(int left, int top, int right, int bottom);
+
+	/**
+	 * Runs an action on the UI thread.
+	 * @param action The action to run.
+	 * @return True if the action was queued to be run.
+	 */
+	public boolean post(Runnable action);
+
+	/**
+	 * Runs an action on the UI thread after a delay.
+	 * @param action The action to run.
+	 * @param delayMillis How long to wait before running the action, in milliseconds.
+	 * @return True if the action was queued to be run.
+	 */
+	public boolean postDelayed(Runnable action, long delayMillis);
+
+	/**
+	 * Gets the current width of the table.
+	 * @return The current width of the table.
+	 */
+	public int getViewWidth();
+
+	/**
+	 * Gets the current height of the table.
+	 * @return The current height of the table.
+	 */
+	public int getViewHeight();
+}
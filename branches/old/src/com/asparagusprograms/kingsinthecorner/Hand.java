@@ -19,9 +19,11 @@ package com.asparagusprograms.kingsinthecorner;
 
 import java.util.ArrayList;
 
-import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Paint;
+import android.graphics.Rect;
+
+import com.asparagusprograms.kingsinthecorner.SpriteAtlas.Sprite;
 
 /** An object representing a hand of cards. */
 public class Hand {
@@ -49,6 +51,19 @@ public class Hand {
 	
 	/** The last good index obtained when finding the index of a hovered or selected card. */
 	private int mLastGoodIndex;
+	
+	// The layout of the cards, so a card's position and the card at a position can be worked out directly
+	/** The x-coordinate of the first card. */
+	private int mIndent;
+	
+	/** The distance between the left sides of cards next to each other. */
+	private int mSpacing;
+	
+	/** The index of the first card after the gap in the hand, or -1 if there is no gap. */
+	private int mGap = -1;
+	
+	/** The width of the gap. */
+	private int mGapWidth;
 
 	/**
 	 * Constructs an empty hand object.
@@ -60,6 +75,30 @@ public class Hand {
 		mNeedsShifted = true;
 	}
 
+	/**
+	 * Gets a copy of this hand and its cards, laid out the same way,
+	 * that can be drawn while this hand keeps changing.
+	 * @return A copy of this hand.
+	 */
+	public Hand copy() {
+		Hand h = new Hand();
+		for (int i = 0; i < mHand.size(); i++) {
+			h.mHand.add(mHand.get(i).copy());
+		}
+		h.mSortedColor = mSortedColor;
+		h.mHandWidth = mHandWidth;
+		h.mCardWidth = mCardWidth;
+		h.mTop = mTop;
+		h.mHovered = mHovered;
+		h.mNeedsShifted = mNeedsShifted;
+		h.mLastGoodIndex = mLastGoodIndex;
+		h.mIndent = mIndent;
+		h.mSpacing = mSpacing;
+		h.mGap = mGap;
+		h.mGapWidth = mGapWidth;
+		return h;
+	}
+
 	/** Removes all cards in this hand. */
 	public void clear() {
 		mHand.clear();
@@ -241,7 +280,8 @@ public class Hand {
 	
 	/**
 	 * Shifts cards as needed for hovering a card over
-	 * this hand at the given position.
+	 * this hand at the given position. Only the cards between
+	 * where the gap was and where it is now are moved.
 	 * @param tarx The target x-coordinate where another
 	 * 				card is being hovered over this hand.
 	 */
@@ -255,10 +295,7 @@ public class Hand {
 		
 		if (pos == -1) return;
 		
-		int visibleWidth = 0;
-		
-		if (numCards == 1 || (numCards+1)*mCardWidth <= mHandWidth)  visibleWidth = mCardWidth;
-		else visibleWidth = (mHandWidth-2*mCardWidth)/(numCards-1);
+		int spacing = getHoverSpacing(numCards);
 		
 		int cardSpace = (numCards+1) * mCardWidth;
 		int indent = 0;
@@ -266,13 +303,20 @@ public class Hand {
 			indent = (mHandWidth-cardSpace)/2;
 		}
 		
-		// Shift all cards after to the right
-		int margin = 0;
-		for (int i = 0; i < numCards; i++) {
-			if (i < pos) margin = indent + i * visibleWidth;
-			else margin = indent + (i*visibleWidth) + mCardWidth;
-			mHand.get(i).setPos(margin, mTop);
-		}		
+		if (mGap >= 0 && indent == mIndent && spacing == mSpacing && mGapWidth == mCardWidth) {
+			// Already laid out for hovering, so only the cards the gap moved past change
+			int from = Math.min(mGap, pos);
+			int to = Math.min(Math.max(mGap, pos), numCards);
+			mGap = pos;
+			placeCards(from, to);
+		} else {
+			// Shift all cards after the gap to the right
+			mIndent = indent;
+			mSpacing = spacing;
+			mGap = pos;
+			mGapWidth = mCardWidth;
+			placeCards(0, numCards);
+		}
 	}
 	
 	/**
@@ -291,14 +335,22 @@ public class Hand {
 		
 		if (pos == -1 || pos >= count) return null;
 		
-		Card card = mHand.get(pos);
-		mHand.remove(card);
+		Card card = mHand.remove(pos);
+		if (mGap < 0) {
+			// The cards after it stay where they are, leaving a gap where it was
+			mGap = pos;
+			mGapWidth = mSpacing;
+		} else {
+			mNeedsShifted = true;
+			shiftCardsNormal();
+		}
 		hoverCardAt(tarx);
 		return card;
 	}
 
 	/**
 	 * Gets the index into this hand for a given x-coordinate.
+	 * Worked out from the layout, without looking at each card.
 	 * @param tarx The target x-coordinate to get the index from.
 	 * @return The index into this hand for the card at the given
 	 * 			x-coordinate.
@@ -312,21 +364,16 @@ public class Hand {
 		
 		// Find the index of the card at the target x-coordinate
 		if (mHovered) {
+			visibleWidth = getHoverSpacing(numCards);
 			
-			if ((numCards+1)*mCardWidth <= mHandWidth)  visibleWidth = mCardWidth;
-			else visibleWidth = (mHandWidth-2*mCardWidth)/(numCards-1);
-			
-			for (int i = 0; i < numCards; i++) {
-				int x = mHand.get(i).getX();
-				if (tarx >= x-(visibleWidth/2) && tarx < x-(visibleWidth/2)+visibleWidth) {
-					ans = i;
-					break;
-				}
-			}
+			// Each card's area is centered on its left side
+			int gap = (mGap >= 0) ? Math.min(mGap, numCards) : numCards;
+			ans = findCard(tarx, 0, gap, mIndent, visibleWidth/2, visibleWidth);
+			if (ans == -1) ans = findCard(tarx, gap, numCards, mIndent+mGapWidth, visibleWidth/2, visibleWidth);
 			
 			// Do special checks for last card
 			if (visibleWidth == mCardWidth) {		
-				int x = mHand.get(mHand.size()-1).getX() + mCardWidth/2;
+				int x = getOffset(numCards-1) + mCardWidth/2;
 				if (tarx > x) {
 					ans = numCards;
 				}
@@ -340,19 +387,72 @@ public class Hand {
 			if (numCards*mCardWidth <= mHandWidth) visibleWidth = mCardWidth;
 			else visibleWidth = (mHandWidth-mCardWidth)/(numCards-1);
 
-			for (int i = 0; i < numCards; i++) {
-				int x = mHand.get(i).getX();
-				if (i == numCards-1) visibleWidth = mCardWidth;	// The last card can be seen in full
-				if (tarx >= x && tarx < x + visibleWidth) {
-					ans = i;
-					break;
-				}
+			ans = findCard(tarx, 0, numCards-1, mIndent, 0, visibleWidth);
+			if (ans == -1) {
+				// The last card can be seen in full
+				int x = getOffset(numCards-1);
+				if (tarx >= x && tarx < x + mCardWidth) ans = numCards-1;
 			}
 		}
 		if (ans >= 0 && ans <= numCards) mLastGoodIndex = ans;
 		return ans;
 	}
 	
+	/**
+	 * Finds the first card in a run of evenly spaced cards whose area covers an x-coordinate.
+	 * @param tarx The x-coordinate.
+	 * @param start The index of the first card in the run.
+	 * @param end The index after the last card in the run.
+	 * @param base Where the card at index 0 would be if it were in the run.
+	 * @param lead How far each card's area starts before the card.
+	 * @param width The width of each card's area.
+	 * @return The index of the card, or -1 if no card in the run covers the x-coordinate.
+	 */
+	private int findCard(int tarx, int start, int end, int base, int lead, int width) {
+		if (start >= end) return -1;
+		
+		// The first card whose area ends after the target
+		int i = start;
+		if (mSpacing > 0) {
+			int past = tarx - base + lead - width;
+			if (past >= 0) i = Math.max(start, past/mSpacing + 1);
+		}
+		if (i >= end) return -1;
+		
+		int left = base + i*mSpacing - lead;
+		return (tarx >= left && tarx < left + width) ? i : -1;
+	}
+	
+	/**
+	 * Gets the distance between cards when a card is hovering over this hand.
+	 * @param numCards The number of cards in this hand, not counting the hovering card.
+	 */
+	private int getHoverSpacing(int numCards) {
+		if (numCards == 1 || (numCards+1)*mCardWidth <= mHandWidth) return mCardWidth;
+		else return (mHandWidth-2*mCardWidth)/(numCards-1);
+	}
+	
+	/**
+	 * Gets the x-coordinate of a card from the layout.
+	 * @param index The index of the card.
+	 */
+	private int getOffset(int index) {
+		int x = mIndent + index*mSpacing;
+		if (mGap >= 0 && index >= mGap) x += mGapWidth;
+		return x;
+	}
+	
+	/**
+	 * Moves cards to their places in the layout.
+	 * @param from The index of the first card to move.
+	 * @param to The index after the last card to move.
+	 */
+	private void placeCards(int from, int to) {
+		for (int i = from; i < to; i++) {
+			mHand.get(i).setPos(getOffset(i), mTop);
+		}
+	}
+	
 	/**
 	 * Initializes values used when drawing this hand to a canvas.
 	 * @param top The y-coordinate for the top of this hand.
@@ -392,10 +492,19 @@ public class Hand {
 			indent = (mHandWidth-cardSpace)/2;
 		}
 
-		for (int i = 0; i < numCards; i++) {
-			int x = indent + i*offset;
-			mHand.get(i).setPos(x, mTop);
-		}
+		mIndent = indent;
+		mSpacing = offset;
+		mGap = -1;
+		placeCards(0, numCards);
+	}
+	
+	/**
+	 * Gets the area this hand covers when drawn.
+	 * @param out The rectangle to set to the area.
+	 * @param cardHeight The height of a card in this hand.
+	 */
+	public void getBounds(Rect out, int cardHeight) {
+		out.set(0, mTop, mHandWidth, mTop+cardHeight);
 	}
 	
 	/**
@@ -406,16 +515,11 @@ public class Hand {
 	 * 					not face up. If this is null, the hand
 	 * 					will be drawn face up.
 	 */
-	public void draw(Canvas c, Paint paint, Bitmap cardBack) {
+	public void draw(Canvas c, Paint paint, Sprite cardBack) {
 		int count = mHand.size();
 
 		for (int i = 0; i < count; i++) {
-			try {
-				mHand.get(i).draw(c, paint, cardBack);
-			} catch (ArrayIndexOutOfBoundsException ex) {
-				count = mHand.size();
-				i = -1;
-			}
+			mHand.get(i).draw(c, paint, cardBack);
 		}
 	}
 }
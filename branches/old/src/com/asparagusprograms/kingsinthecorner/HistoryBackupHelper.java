@@ -0,0 +1,100 @@
+/**
+ * Copyright 2010,2011 Trevor Boyce
+ *
+ * This file is part of Kings in the Corner.
+ *
+ *    Kings in the Corner is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    Kings in the Corner is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with Kings in the Corner.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.asparagusprograms.kingsinthecorner;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import android.app.backup.BackupDataInputStream;
+import android.app.backup.BackupDataOutput;
+import android.app.backup.BackupHelper;
+import android.app.backup.FileBackupHelper;
+import android.content.Context;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+/**
+ * Backs up and restores each player's game history file. The files are
+ * named after the players, so the ones backed up are those that exist when
+ * the backup agent is created, and every history file in a restore is
+ * restored, even though it doesn't exist yet.
+ */
+public class HistoryBackupHelper implements BackupHelper {
+	/** The tag used when logging. */
+	private static final String TAG = "HistoryBackupHelper";
+
+	private final Context mContext;
+	/** The history files that exist, by name. */
+	private final String[] mFiles;
+	/** Backs up {@link #mFiles}. */
+	private final FileBackupHelper mHelper;
+
+	public HistoryBackupHelper(Context context) {
+		mContext = context;
+		ArrayList<String> files = new ArrayList<String>();
+		for (String file : context.fileList()) {
+			if (file.endsWith(StatsManager.HISTORY_FILE_SUFFIX)) files.add(file);
+		}
+		mFiles = files.toArray(new String[files.size()]);
+		mHelper = new FileBackupHelper(context, mFiles);
+	}
+
+	public void performBackup(ParcelFileDescriptor oldState, BackupDataOutput data, ParcelFileDescriptor newState) {
+		// Games are appended under each file's lock, so hold them all to back up whole records
+		for (String file : mFiles) {
+			StorageLock.forFile(file).lockRead();
+		}
+		try {
+			mHelper.performBackup(oldState, data, newState);
+		} finally {
+			for (String file : mFiles) {
+				StorageLock.forFile(file).unlockRead();
+			}
+		}
+	}
+
+	public void restoreEntity(BackupDataInputStream data) {
+		String file = data.getKey();
+		if (!file.endsWith(StatsManager.HISTORY_FILE_SUFFIX) || file.indexOf('/') >= 0) return;
+
+		StorageLock lock = StorageLock.forFile(file);
+		lock.lockWrite();
+		try {
+			FileOutputStream out = mContext.openFileOutput(file, Context.MODE_PRIVATE);
+			try {
+				byte[] buffer = new byte[4096];
+				int read;
+				while ((read = data.read(buffer, 0, buffer.length)) > 0) {
+					out.write(buffer, 0, read);
+				}
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			Log.e(TAG, file + ": " + e.toString());
+		} finally {
+			lock.unlockWrite();
+		}
+	}
+
+	public void writeNewStateDescription(ParcelFileDescriptor newState) {
+		mHelper.writeNewStateDescription(newState);
+	}
+}
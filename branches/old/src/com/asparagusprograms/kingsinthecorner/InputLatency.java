@@ -0,0 +1,159 @@
+/**
+ * Copyright 2010,2011 Trevor Boyce
+ *
+ * This file is part of Kings in the Corner.
+ *
+ *    Kings in the Corner is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    Kings in the Corner is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with Kings in the Corner.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.asparagusprograms.kingsinthecorner;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * Measures how long it takes for a touch to show up on the screen. The
+ * time of each touch is carried in the snapshot made after it is handled,
+ * and when the first frame drawn from that snapshot is finished the time
+ * since the touch is recorded. Drags and taps are kept separately.
+ * How long each {@link GameLoop} command takes, from when it was due
+ * until it finished, is kept as well.
+ * <p>
+ * The histograms can be written to the log and to a file in the app's files
+ * directory with {@link #dump(Context)}, which only happens when debug
+ * logging is turned on for {@value #TAG}. The time until the display
+ * shows a finished frame, about one more refresh, isn't included.
+ */
+public class InputLatency {
+	/** The tag used when logging latency. */
+	private static final String TAG = "InputLatency";
+
+	/** The file the histograms are written to. */
+	private static final String FILE_NAME = "input_latency.txt";
+
+	/** The latency of move events while dragging. */
+	private static final Histogram sDrag = new Histogram("drag");
+
+	/** The latency of touching down and lifting up. */
+	private static final Histogram sTap = new Histogram("tap");
+
+	/** The time game loop commands take, waiting included. */
+	private static final Histogram sCommand = new Histogram("command");
+
+	private InputLatency() {}
+
+	/**
+	 * Records the latency of a touch that has been drawn.
+	 * @param drag True if the touch was a move while dragging.
+	 * @param millis The time from the touch to the end of the frame showing it, in milliseconds.
+	 */
+	public static void record(boolean drag, long millis) {
+		if (drag) sDrag.record(millis);
+		else sTap.record(millis);
+	}
+
+	/**
+	 * Records how long a game loop command took.
+	 * @param millis The time from when the command was due until it finished, in milliseconds.
+	 */
+	public static void recordCommand(long millis) {
+		sCommand.record(millis);
+	}
+
+	/**
+	 * Writes the histograms to the debug log and to {@value #FILE_NAME}
+	 * in the files directory, if debug logging is on for {@value #TAG}.
+	 * @param context The context used to open the file.
+	 */
+	public static void dump(Context context) {
+		if (!Log.isLoggable(TAG, Log.DEBUG)) return;
+		String drag = sDrag.toString();
+		String tap = sTap.toString();
+		String command = sCommand.toString();
+		Log.d(TAG, drag);
+		Log.d(TAG, tap);
+		Log.d(TAG, command);
+
+		try {
+			FileOutputStream fos = context.openFileOutput(FILE_NAME, Context.MODE_PRIVATE);
+			try {
+				fos.write((drag + "\n" + tap + "\n" + command + "\n" + sDrag.buckets() + sTap.buckets() + sCommand.buckets()).getBytes());
+			} finally {
+				fos.close();
+			}
+		} catch (IOException e) {
+			Log.e("IOEx", e.toString());
+		}
+	}
+
+	/** Counts latencies in one millisecond buckets. */
+	private static class Histogram {
+		/** Latencies this long or longer all go in the last bucket, in milliseconds. */
+		private static final int MAX_MILLIS = 1000;
+
+		/** What is being measured. */
+		private final String mName;
+		/** The number of latencies of each length. */
+		private final int[] mCounts = new int[MAX_MILLIS+1];
+		/** The number of latencies recorded. */
+		private int mTotal;
+		/** The longest latency recorded, in milliseconds. */
+		private long mMax;
+
+		Histogram(String name) {
+			mName = name;
+		}
+
+		synchronized void record(long millis) {
+			if (millis < 0) return;
+			mCounts[(int)Math.min(millis, MAX_MILLIS)]++;
+			mTotal++;
+			mMax = Math.max(mMax, millis);
+		}
+
+		/**
+		 * Gets the latency that a given fraction of latencies are no longer than.
+		 * @param fraction The fraction, such as 0.95 for the 95th percentile.
+		 * @return The latency in milliseconds, or 0 if none were recorded.
+		 */
+		synchronized int percentile(double fraction) {
+			if (mTotal == 0) return 0;
+			long rank = (long)Math.ceil(fraction * mTotal);
+			long seen = 0;
+			for (int i = 0; i < mCounts.length; i++) {
+				seen += mCounts[i];
+				if (seen >= rank) return i;
+			}
+			return MAX_MILLIS;
+		}
+
+		/** Gets each bucket that isn't empty, one per line. */
+		synchronized String buckets() {
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < mCounts.length; i++) {
+				if (mCounts[i] > 0) sb.append(mName).append(' ').append(i).append("ms ").append(mCounts[i]).append('\n');
+			}
+			return sb.toString();
+		}
+
+		@Override
+		public synchronized String toString() {
+			return mName + ": " + mTotal + " events, p50 " + percentile(0.50) + "ms, p95 " + percentile(0.95) +
+					"ms, p99 " + percentile(0.99) + "ms, max " + mMax + "ms";
+		}
+	}
+}
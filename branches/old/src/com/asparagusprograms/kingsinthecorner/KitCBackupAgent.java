@@ -12,6 +12,7 @@ import android.os.ParcelFileDescriptor;
 public class KitCBackupAgent extends BackupAgentHelper {
 	public static final String SHARED_PREFS_KEY = "shared_prefs";
 	public static final String STATS_KEY = "stats";
+	public static final String HISTORY_KEY = "history";
 	
 	public void onCreate() {
 		SharedPreferencesBackupHelper prefsHelper = new SharedPreferencesBackupHelper(this, Preferences.SHARED_PREFS_NAME);
@@ -19,23 +20,31 @@ public class KitCBackupAgent extends BackupAgentHelper {
 		
 		FileBackupHelper fileHelper = new FileBackupHelper(this, StatsManager.STATS_FILE_NAME);
 		addHelper(STATS_KEY, fileHelper);
+		
+		// Each player's game history, which is named after the player
+		addHelper(HISTORY_KEY, new HistoryBackupHelper(this));
 	}
 	
 	@Override
 	public void onBackup(ParcelFileDescriptor oldState, BackupDataOutput data,
 			ParcelFileDescriptor newState) throws IOException {
-		// Hold the lock while the FileBackupHelper performs backup
-		synchronized (Main.sDataLock) {
-			super.onBackup(oldState, data, newState);
-		}
+		// No lock is needed here. The stats file is only ever replaced, never
+		// changed in place, so the FileBackupHelper reads a consistent snapshot
+		// even if a game finishes while the backup is running.
+		super.onBackup(oldState, data, newState);
 	}
 
 	@Override
 	public void onRestore(BackupDataInput data, int appVersionCode,
 			ParcelFileDescriptor newState) throws IOException {
 		// Hold the lock while the FileBackupHelper restores the file
-		synchronized (Main.sDataLock) {			
+		StorageLock statsLock = StorageLock.forFile(StatsManager.STATS_FILE_NAME);
+		statsLock.lockWrite();
+		try {
 			super.onRestore(data, appVersionCode, newState);
+			StatsManager.statsFileReplaced();
+		} finally {
+			statsLock.unlockWrite();
 		}
 	}
 }
@@ -22,9 +22,12 @@ package com.asparagusprograms.kingsinthecorner;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
+import android.app.ProgressDialog;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.view.LayoutInflater;
@@ -39,9 +42,6 @@ import android.widget.LinearLayout;
  * This is the main menu activity that is launched at application startup.
  */
 public class Main extends Activity implements OnClickListener {
-	/** Object for intrinsic lock. */
-	static final Object[] sDataLock = new Object[0];
-
 	// Static values used by classes and activities
 	/** Item ID for creating menus. */
 	public static final int MENU_ABOUT = 1,
@@ -73,6 +73,9 @@ public class Main extends Activity implements OnClickListener {
 	/** The shared preferences associated with this application's context. */
 	private SharedPreferences mPrefs;
 	
+	/** The task combining old stats files, or null if none is running. Kept across rotation. */
+	private MigrateStatsTask mMigrateStatsTask;
+	
 	/** The width of the button layouts. Used to animate them the correct distance. */
 	private int mWidth = 0;
 	
@@ -92,6 +95,10 @@ public class Main extends Activity implements OnClickListener {
 		
         setContentView(R.layout.main);
         
+        // Pick up combining old stats where it was before the screen rotated, instead of starting again
+        mMigrateStatsTask = (MigrateStatsTask)getLastNonConfigurationInstance();
+        if (mMigrateStatsTask != null) mMigrateStatsTask.attach(this);
+        
         versionCheck();
         
         Button singlePlayerGame = (Button)this.findViewById(R.id.SinglePlayerButton);
@@ -119,6 +126,8 @@ public class Main extends Activity implements OnClickListener {
     @Override
 	protected void onResume() {
     	mPrefs.edit().putBoolean(getResources().getString(R.string.pref_key_inGame), false).commit();    	
+    	// Load the game's images while the menu is showing
+    	AssetLoader.preload(this);
     	super.onResume();
 	}
     
@@ -126,8 +135,21 @@ public class Main extends Activity implements OnClickListener {
     protected void onPause() {               
         mFirstButtons.setVisibility(View.VISIBLE);
         mSecondButtons.setVisibility(View.GONE);
+        StorageLock.logMetrics();
         super.onPause();
     }
+    
+    @Override
+    public Object onRetainNonConfigurationInstance() {
+        return mMigrateStatsTask;
+    }
+    
+    @Override
+    protected void onDestroy() {
+        // The task outlives this activity, so it must let go of it and its dialog
+        if (mMigrateStatsTask != null) mMigrateStatsTask.detach();
+        super.onDestroy();
+    }
 
 	@Override
 	public void onClick(View v) {
@@ -358,14 +380,108 @@ public class Main extends Activity implements OnClickListener {
 					deleteFile(file);
 				}
 			}
-			StatsManager sm = new StatsManager(this);
-			if (!sm.combineSplitToSingle()) {
-				mPrefs.edit().putString(getResources().getString(R.string.pref_key_username), getResources().getString(R.string.username_none)).commit();
-				showDialog(OLD_STATS_ERROR_DIAG);
-			}
+			// Mark the stats as needing to be combined, so it is picked up again if interrupted
+			mPrefs.edit().putBoolean(getResources().getString(R.string.pref_key_statsMigrationPending), true).commit();
 		}
 		
 		// Update the last run version to the current version
         mPrefs.edit().putString(getResources().getString(R.string.pref_key_lastRunVersion), thisVersion).commit();
+        
+        // Combine any old stats that have not been combined yet
+        if (mPrefs.getBoolean(getResources().getString(R.string.pref_key_statsMigrationPending), false)
+        		&& mMigrateStatsTask == null) {
+        	mMigrateStatsTask = new MigrateStatsTask(this);
+        	mMigrateStatsTask.execute();
+        }
+	}
+	
+	/**
+	 * Combines old player stats files into the single stats file in the
+	 * background, showing the progress if there are any files to combine.
+	 * The task is kept when the screen rotates, and shows its progress in
+	 * whichever activity it is attached to.
+	 */
+	private static class MigrateStatsTask extends AsyncTask<Void, Integer, Boolean> implements StatsManager.MigrationListener {
+		/** The application context, which outlives any activity. */
+		private final Context mContext;
+		private final StatsManager mStatsManager;
+		/** The activity showing the progress, or null while there isn't one. */
+		private Main mActivity;
+		private ProgressDialog mProgressDialog;
+		/** The number of files to combine, and how many are done. */
+		private int mTotal, mDone;
+		
+		MigrateStatsTask(Main activity) {
+			mContext = activity.getApplicationContext();
+			mStatsManager = new StatsManager(mContext);
+			mActivity = activity;
+		}
+		
+		/**
+		 * Shows the progress in an activity.
+		 * @param activity The activity, which keeps this task until it is done.
+		 */
+		void attach(Main activity) {
+			mActivity = activity;
+			showProgress();
+		}
+		
+		/** Stops showing the progress, before the activity is destroyed. */
+		void detach() {
+			if (mProgressDialog != null) mProgressDialog.dismiss();
+			mProgressDialog = null;
+			mActivity = null;
+		}
+		
+		@Override
+		protected void onPreExecute() {
+			mTotal = mStatsManager.getSplitStatsFiles().size();
+			showProgress();
+		}
+		
+		/** Shows the progress dialog in the attached activity, if there are files to combine. */
+		private void showProgress() {
+			if (mActivity == null || mTotal == 0 || getStatus() == Status.FINISHED) return;
+			mProgressDialog = new ProgressDialog(mActivity);
+			mProgressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+			mProgressDialog.setMessage(mContext.getResources().getString(R.string.diag_migratingStats));
+			mProgressDialog.setCancelable(false);
+			mProgressDialog.setMax(mTotal);
+			mProgressDialog.setProgress(mDone);
+			mProgressDialog.show();
+		}
+		
+		@Override
+		protected Boolean doInBackground(Void... params) {
+			return mStatsManager.combineSplitToSingle(this);
+		}
+		
+		@Override
+		public void onMigrationProgress(int done, int total) {
+			publishProgress(done);
+		}
+		
+		@Override
+		protected void onProgressUpdate(Integer... values) {
+			mDone = values[0];
+			if (mProgressDialog != null) mProgressDialog.setProgress(mDone);
+		}
+		
+		@Override
+		protected void onPostExecute(Boolean result) {
+			Main activity = mActivity;
+			detach();
+			if (activity != null) activity.mMigrateStatsTask = null;
+			
+			SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+			// Unreadable files are set aside while combining, so only a failed write leaves files to combine
+			if (result || mStatsManager.getSplitStatsFiles().isEmpty()) {
+				prefs.edit().putBoolean(mContext.getResources().getString(R.string.pref_key_statsMigrationPending), false).commit();
+			} else {
+				// The old files are left in place so combining can be tried again next time
+				prefs.edit().putString(mContext.getResources().getString(R.string.pref_key_username), mContext.getResources().getString(R.string.username_none)).commit();
+				if (activity != null && !activity.isFinishing()) activity.showDialog(OLD_STATS_ERROR_DIAG);
+			}
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2010,2011 Trevor Boyce
+ *
+ * This file is part of Kings in the Corner.
+ *
+ *    Kings in the Corner is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    Kings in the Corner is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with Kings in the Corner.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.asparagusprograms.kingsinthecorner;
+
+import java.util.ArrayList;
+
+import android.os.AsyncTask;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
+import android.widget.BaseAdapter;
+
+/**
+ * A list adapter for player stats that loads players from the
+ * {@link StatsManager} a page at a time on a background thread.
+ * The first page is loaded when the adapter is created and more
+ * pages are loaded as the list is scrolled near the end, so only
+ * the players that have been scrolled to are ever read or shown.
+ * Subclasses only need to supply the row views.
+ */
+public abstract class PagedStatsAdapter extends BaseAdapter implements OnScrollListener {
+	/** The number of players to load at a time. */
+	public static final int PAGE_SIZE = 20;
+
+	/** Start loading the next page when this many rows are left to scroll. */
+	private static final int LOAD_AHEAD = 5;
+
+	/** The manager the players are loaded from. */
+	private final StatsManager mStatsManager;
+
+	/** The players loaded so far. */
+	private final ArrayList<PlayerStats> mPlayers;
+
+	/** The page currently being loaded, or null if no page is loading. */
+	private PageLoader mLoader;
+
+	/** True if the last page loaded was full and there may be more players. */
+	private boolean mHasMore;
+
+	/**
+	 * Constructs a new adapter and starts loading the first page.
+	 * @param statsManager The manager to load players from.
+	 */
+	public PagedStatsAdapter(StatsManager statsManager) {
+		mStatsManager = statsManager;
+		mPlayers = new ArrayList<PlayerStats>();
+		mHasMore = true;
+		loadNextPage();
+	}
+
+	/** Stops any page that is currently loading. Call when the list is no longer shown. */
+	public void cancel() {
+		if (mLoader != null) {
+			mLoader.cancel(false);
+			mLoader = null;
+		}
+		mHasMore = false;
+	}
+
+	/** Starts loading the next page, unless one is already loading or there are no more players. */
+	private void loadNextPage() {
+		if (mLoader != null || !mHasMore) return;
+		mLoader = new PageLoader();
+		mLoader.execute(mPlayers.size());
+	}
+
+	@Override
+	public int getCount() {
+		return mPlayers.size();
+	}
+
+	@Override
+	public PlayerStats getItem(int position) {
+		return mPlayers.get(position);
+	}
+
+	@Override
+	public long getItemId(int position) {
+		return position;
+	}
+
+	@Override
+	public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+		if (firstVisibleItem + visibleItemCount >= totalItemCount - LOAD_AHEAD) {
+			loadNextPage();
+		}
+	}
+
+	@Override
+	public void onScrollStateChanged(AbsListView view, int scrollState) {}
+
+	/** Loads a page of players on a background thread and adds them to the list. */
+	private class PageLoader extends AsyncTask<Integer, Void, ArrayList<PlayerStats>> {
+		@Override
+		protected ArrayList<PlayerStats> doInBackground(Integer... params) {
+			return mStatsManager.getPlayers(params[0], PAGE_SIZE);
+		}
+
+		@Override
+		protected void onPostExecute(ArrayList<PlayerStats> page) {
+			if (mLoader != this) return;
+			mLoader = null;
+			mHasMore = (page.size() == PAGE_SIZE);
+			mPlayers.addAll(page);
+			notifyDataSetChanged();
+		}
+	}
+}
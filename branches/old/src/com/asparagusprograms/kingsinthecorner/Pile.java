@@ -22,10 +22,12 @@ package com.asparagusprograms.kingsinthecorner;
 import java.io.Serializable;
 
 import android.content.Context;
-import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Point;
 import android.graphics.Rect;
 
+import com.asparagusprograms.kingsinthecorner.SpriteAtlas.Sprite;
+
 public class Pile implements Serializable {
 
 	// Side pile variables
@@ -56,6 +58,14 @@ public class Pile implements Serializable {
 		pos = new Rect();
 	}
 
+	/** Copy this pile and its cards, so the copy can be drawn while this pile keeps changing **/
+	public Pile copy() {
+		Pile p = new Pile(mPileType, (first == null) ? null : first.copy(), (last == null) ? null : last.copy());
+		if (pos == null) p.pos = null;
+		else p.pos.set(pos);
+		return p;
+	}
+
 	/** Attempt to play a card on this pile **/
 	public boolean play(Card c) {
 		if (c == null) return false; // Null check
@@ -152,118 +162,145 @@ public class Pile implements Serializable {
 		return false;
 	}
 
-	public void draw(Canvas c, int cardHeight, Context context, String style) {
+	public void draw(Canvas c, int cardHeight) {
 		if (first == null || c == null) return;
 
-		int rotation = 0;
-
-		if (mPileType == UP || mPileType == DOWN) rotation = 0;
-		else if (mPileType == LEFT || mPileType == RIGHT) rotation = 90;
-		else if (mPileType == UP_LEFT || mPileType == DOWN_RIGHT) rotation = 135;
-		else if (mPileType == UP_RIGHT || mPileType == DOWN_LEFT) rotation = 45;
+		int rotation = getRotation();
 
-		if (first != null) first.setRotate(rotation, context, style);
-		if (last != null) last.setRotate(rotation, context, style);
+		if (first != null) first.setRotate(rotation);
+		if (last != null) last.setRotate(rotation);
 
 		if (!isCorner()) {
 			// Draw side
 			if (mPileType == LEFT) {
-				c.drawBitmap(first.getImage(), pos.left+(cardHeight/4), pos.top, null);
-				if (last != null) c.drawBitmap(last.getImage(), pos.left, pos.top, null);
+				first.drawAt(c, pos.left+(cardHeight/4), pos.top, null);
+				if (last != null) last.drawAt(c, pos.left, pos.top, null);
 			}
 
 			else if (mPileType == UP) {
-				c.drawBitmap(first.getImage(), pos.left, pos.top+(cardHeight/4), null);
-				if (last != null) c.drawBitmap(last.getImage(), pos.left, pos.top, null);
+				first.drawAt(c, pos.left, pos.top+(cardHeight/4), null);
+				if (last != null) last.drawAt(c, pos.left, pos.top, null);
 			}
 
 			else if (mPileType == RIGHT) {
-				c.drawBitmap(first.getImage(), pos.left, pos.top, null);
-				if (last != null) c.drawBitmap(last.getImage(), pos.left+(cardHeight/4), pos.top, null);
+				first.drawAt(c, pos.left, pos.top, null);
+				if (last != null) last.drawAt(c, pos.left+(cardHeight/4), pos.top, null);
 			}
 
 			else if (mPileType == DOWN) {
-				c.drawBitmap(first.getImage(), pos.left, pos.top, null);
-				if (last != null) c.drawBitmap(last.getImage(), pos.left, pos.top+(cardHeight/4), null);
+				first.drawAt(c, pos.left, pos.top, null);
+				if (last != null) last.drawAt(c, pos.left, pos.top+(cardHeight/4), null);
 			}
 		} else {
 			// Draw corner
 			if (mPileType == UP_LEFT) {
-				c.drawBitmap(first.getImage(), pos.left, pos.top, null);
-				if (last != null) c.drawBitmap(last.getImage(), pos.left-(cardHeight/6), pos.top-(cardHeight/6), null);
+				first.drawAt(c, pos.left, pos.top, null);
+				if (last != null) last.drawAt(c, pos.left-(cardHeight/6), pos.top-(cardHeight/6), null);
 			}
 
 			else if (mPileType == UP_RIGHT) {
-				c.drawBitmap(first.getImage(), pos.left, pos.top, null);
-				if (last != null) c.drawBitmap(last.getImage(), pos.left+(cardHeight/6), pos.top-(cardHeight/6), null);
+				first.drawAt(c, pos.left, pos.top, null);
+				if (last != null) last.drawAt(c, pos.left+(cardHeight/6), pos.top-(cardHeight/6), null);
 			}
 
 			else if (mPileType == DOWN_RIGHT) {
-				c.drawBitmap(first.getImage(), pos.left, pos.top, null);
-				if (last != null) c.drawBitmap(last.getImage(), pos.left+(cardHeight/6), pos.top+(cardHeight/6), null);
+				first.drawAt(c, pos.left, pos.top, null);
+				if (last != null) last.drawAt(c, pos.left+(cardHeight/6), pos.top+(cardHeight/6), null);
 			}
 
 			else if (mPileType == DOWN_LEFT) {
-				c.drawBitmap(first.getImage(), pos.left, pos.top, null);
-				if (last != null) c.drawBitmap(last.getImage(), pos.left-(cardHeight/6), pos.top+(cardHeight/6), null);
+				first.drawAt(c, pos.left, pos.top, null);
+				if (last != null) last.drawAt(c, pos.left-(cardHeight/6), pos.top+(cardHeight/6), null);
 			}
 		}
 	}
 
-	public void drawSelected(Canvas c, int cardWidth, int cardHeight, int tarx, int tary, Context context, String style) {
+	/**
+	 * Gets the rotation of the cards on this pile.
+	 * @return The number of degrees the cards are rotated.
+	 */
+	public int getRotation() {
+		if (mPileType == LEFT || mPileType == RIGHT) return 90;
+		else if (mPileType == UP_LEFT || mPileType == DOWN_RIGHT) return 135;
+		else if (mPileType == UP_RIGHT || mPileType == DOWN_LEFT) return 45;
+		else return 0;
+	}
+
+	/**
+	 * Gets where the card on top of this pile is drawn, the same as {@link #draw(Canvas, int)}.
+	 * @param out Set to the top left of the box around the top card.
+	 * @param cardHeight The height of a card.
+	 */
+	public void getTopPosition(Point out, int cardHeight) {
+		boolean covered = (last != null);
+		int dx = 0, dy = 0;
+
+		if (mPileType == LEFT && !covered) dx = cardHeight/4;
+		else if (mPileType == UP && !covered) dy = cardHeight/4;
+		else if (mPileType == RIGHT && covered) dx = cardHeight/4;
+		else if (mPileType == DOWN && covered) dy = cardHeight/4;
+		else if (mPileType == UP_LEFT && covered) { dx = -(cardHeight/6); dy = -(cardHeight/6); }
+		else if (mPileType == UP_RIGHT && covered) { dx = cardHeight/6; dy = -(cardHeight/6); }
+		else if (mPileType == DOWN_RIGHT && covered) { dx = cardHeight/6; dy = cardHeight/6; }
+		else if (mPileType == DOWN_LEFT && covered) { dx = -(cardHeight/6); dy = cardHeight/6; }
+
+		out.set(pos.left+dx, pos.top+dy);
+	}
+
+	public void drawSelected(Canvas c, int cardWidth, int cardHeight, int tarx, int tary) {
 		if (first == null) return;
 
-		first.setRotate(0, context, style);
-		c.drawBitmap(first.getImage(), tarx-(cardWidth/2), tary-(cardHeight/4), null);
+		first.setRotate(0);
+		first.drawAt(c, tarx-(cardWidth/2), tary-(cardHeight/4), null);
 
 		if (last != null) {
-			last.setRotate(0, context, style);
-			c.drawBitmap(last.getImage(), tarx-(cardWidth/2), tary-(cardHeight/4)+(cardHeight/4), null);
+			last.setRotate(0);
+			last.drawAt(c, tarx-(cardWidth/2), tary-(cardHeight/4)+(cardHeight/4), null);
 		}
 	}
 
-	public void drawHighlighted(Canvas c, Bitmap h, int cardHeight) {
+	public void drawHighlighted(Canvas c, Sprite h, int cardHeight) {
 		if (!isCorner()) {
 			// Draw side
 			if (mPileType == LEFT) {
-				if (last == null) c.drawBitmap(h, pos.left+(cardHeight/4), pos.top, null);
-				else c.drawBitmap(h, pos.left, pos.top, null);
+				if (last == null) h.draw(c, pos.left+(cardHeight/4), pos.top, null);
+				else h.draw(c, pos.left, pos.top, null);
 			}
 
 			else if (mPileType == UP) {
-				if (last == null) c.drawBitmap(h, pos.left, pos.top+(cardHeight/4), null);
-				else c.drawBitmap(h, pos.left, pos.top, null);
+				if (last == null) h.draw(c, pos.left, pos.top+(cardHeight/4), null);
+				else h.draw(c, pos.left, pos.top, null);
 			}
 
 			else if (mPileType == RIGHT) {
-				if (last == null) c.drawBitmap(h, pos.left, pos.top, null);
-				else c.drawBitmap(h, pos.left+(cardHeight/4), pos.top, null);
+				if (last == null) h.draw(c, pos.left, pos.top, null);
+				else h.draw(c, pos.left+(cardHeight/4), pos.top, null);
 			}
 
 			else if (mPileType == DOWN) {
-				if (last == null) c.drawBitmap(h, pos.left, pos.top, null);
-				else c.drawBitmap(h, pos.left, pos.top+(cardHeight/4), null);
+				if (last == null) h.draw(c, pos.left, pos.top, null);
+				else h.draw(c, pos.left, pos.top+(cardHeight/4), null);
 			}
 		} else {
 			// Draw corner
 			if (mPileType == UP_LEFT) {
-				if (last == null) c.drawBitmap(h, pos.left, pos.top, null);
-				else c.drawBitmap(h, pos.left-(cardHeight/6), pos.top-(cardHeight/6), null);
+				if (last == null) h.draw(c, pos.left, pos.top, null);
+				else h.draw(c, pos.left-(cardHeight/6), pos.top-(cardHeight/6), null);
 			}
 
 			else if (mPileType == UP_RIGHT) {
-				if (last == null) c.drawBitmap(h, pos.left, pos.top, null);
-				else c.drawBitmap(h, pos.left+(cardHeight/6), pos.top-(cardHeight/6), null);
+				if (last == null) h.draw(c, pos.left, pos.top, null);
+				else h.draw(c, pos.left+(cardHeight/6), pos.top-(cardHeight/6), null);
 			}
 
 			else if (mPileType == DOWN_RIGHT) {
-				if (last == null) c.drawBitmap(h, pos.left, pos.top, null);
-				else c.drawBitmap(h, pos.left+(cardHeight/6), pos.top+(cardHeight/6), null);
+				if (last == null) h.draw(c, pos.left, pos.top, null);
+				else h.draw(c, pos.left+(cardHeight/6), pos.top+(cardHeight/6), null);
 			}
 
 			else if (mPileType == DOWN_LEFT) {
-				if (last == null) c.drawBitmap(h, pos.left, pos.top, null);
-				else c.drawBitmap(h, pos.left-(cardHeight/6), pos.top+(cardHeight/6), null);
+				if (last == null) h.draw(c, pos.left, pos.top, null);
+				else h.draw(c, pos.left-(cardHeight/6), pos.top+(cardHeight/6), null);
 			}
 		}
 	}
@@ -274,6 +311,24 @@ public class Pile implements Serializable {
 		else last = c;
 	}
 
+	/**
+	 * Gets the area this pile covers when drawn, including its highlight.
+	 * @param out The rectangle to set to the area.
+	 * @param cardWidth The width of an upright card.
+	 * @param cardHeight The height of an upright card.
+	 */
+	public void getBounds(Rect out, int cardWidth, int cardHeight) {
+		if (!isCorner()) {
+			out.set(pos);
+		} else {
+			// Corner piles only have a position, and are drawn rotated 45 degrees
+			int size = (int)((cardWidth+cardHeight) * 0.7072f) + 1;
+			out.set(pos.left, pos.top, pos.left+size, pos.top+size);
+		}
+		// Leave room for the covering card's offset and the glow around the pile
+		out.inset(-(cardHeight/4), -(cardHeight/4));
+	}
+
 	private boolean isCorner() {return (mPileType > 3);}
 
 	public void clearCorner() {
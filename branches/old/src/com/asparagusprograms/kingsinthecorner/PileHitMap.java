@@ -0,0 +1,141 @@
+/**
+ * Copyright 2010,2011 Trevor Boyce
+ *
+ * This file is part of Kings in the Corner.
+ *
+ *    Kings in the Corner is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    Kings in the Corner is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with Kings in the Corner.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.asparagusprograms.kingsinthecorner;
+
+import java.util.Arrays;
+
+import android.graphics.Rect;
+
+/**
+ * Finds the pile under a point on the table. Built once each time the
+ * table is laid out from each pile's drop zone, so every touch is looked
+ * up the same way in constant time.
+ * <p>
+ * The edges of the zones split the table into a grid of columns and rows,
+ * which is usually no bigger than about 20 by 20. Each pixel column and row
+ * of the table is mapped to its grid column or row, and each grid cell
+ * holds the pile whose zone covers it.
+ */
+public class PileHitMap {
+	/** Returned when there is no pile at a point. */
+	public static final int NONE = -1;
+
+	/** The size of the table. */
+	private final int mWidth, mHeight;
+	/** The grid column of each x-coordinate on the table. */
+	private final byte[] mColumns;
+	/** The grid row of each y-coordinate on the table. */
+	private final byte[] mRows;
+	/** The number of grid columns. */
+	private final int mColumnCount;
+	/** The pile in each grid cell, row by row, or {@link #NONE}. */
+	private final byte[] mCells;
+
+	/**
+	 * Builds a hit map for a table.
+	 * @param width The width of the table.
+	 * @param height The height of the table.
+	 * @param zones The drop zone of each pile, indexed by pile. Where zones
+	 * 			overlap, the pile with the lowest index is found. May contain nulls.
+	 */
+	public PileHitMap(int width, int height, Rect[] zones) {
+		mWidth = Math.max(width, 0);
+		mHeight = Math.max(height, 0);
+
+		int[] xEdges = new int[zones.length*2];
+		int[] yEdges = new int[zones.length*2];
+		int edges = 0;
+		for (Rect zone : zones) {
+			if (zone == null) continue;
+			xEdges[edges] = zone.left;
+			yEdges[edges++] = zone.top;
+			xEdges[edges] = zone.right;
+			yEdges[edges++] = zone.bottom;
+		}
+		xEdges = Arrays.copyOf(xEdges, edges);
+		yEdges = Arrays.copyOf(yEdges, edges);
+		Arrays.sort(xEdges);
+		Arrays.sort(yEdges);
+
+		mColumns = new byte[mWidth];
+		mColumnCount = mapIntervals(mColumns, xEdges);
+		mRows = new byte[mHeight];
+		int rowCount = mapIntervals(mRows, yEdges);
+
+		// Each cell gets the pile covering the first pixel in it, since the whole cell is inside the same zones
+		int[] columnStart = firstOfEach(mColumns, mColumnCount);
+		int[] rowStart = firstOfEach(mRows, rowCount);
+		mCells = new byte[mColumnCount*rowCount];
+		for (int row = 0; row < rowCount; row++) {
+			for (int col = 0; col < mColumnCount; col++) {
+				mCells[row*mColumnCount + col] = (byte)findZone(zones, columnStart[col], rowStart[row]);
+			}
+		}
+	}
+
+	/**
+	 * Gets the pile at a point on the table.
+	 * @param x The x-coordinate of the point.
+	 * @param y The y-coordinate of the point.
+	 * @return The index of the pile's zone, or {@link #NONE} if the point isn't in any zone.
+	 */
+	public int getPileAt(int x, int y) {
+		if (x < 0 || x >= mWidth || y < 0 || y >= mHeight) return NONE;
+		return mCells[mRows[y]*mColumnCount + mColumns[x]];
+	}
+
+	/**
+	 * Maps each coordinate to the interval between edges it falls in.
+	 * @param out Set to the interval of each coordinate.
+	 * @param edges The sorted edges.
+	 * @return The number of intervals.
+	 */
+	private static int mapIntervals(byte[] out, int[] edges) {
+		int interval = 0, next = 0;
+		for (int i = 0; i < out.length; i++) {
+			// Start a new interval at each edge, counting repeated edges once
+			boolean edge = false;
+			while (next < edges.length && edges[next] <= i) {
+				next++;
+				edge = true;
+			}
+			if (edge && i > 0) interval++;
+			out[i] = (byte)interval;
+		}
+		return (out.length > 0) ? interval+1 : 0;
+	}
+
+	/** Gets the first coordinate in each interval. */
+	private static int[] firstOfEach(byte[] intervals, int count) {
+		int[] first = new int[count];
+		for (int i = intervals.length-1; i >= 0; i--) {
+			first[intervals[i]] = i;
+		}
+		return first;
+	}
+
+	/** Gets the first zone containing a point, or {@link #NONE}. */
+	private static int findZone(Rect[] zones, int x, int y) {
+		for (int i = 0; i < zones.length; i++) {
+			if (zones[i] != null && zones[i].contains(x, y)) return i;
+		}
+		return NONE;
+	}
+}
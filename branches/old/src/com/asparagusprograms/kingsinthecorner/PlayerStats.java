@@ -19,6 +19,10 @@
 
 package com.asparagusprograms.kingsinthecorner;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * Holds information about the stats associated
  * with a particular user name.
@@ -43,6 +47,29 @@ public class PlayerStats {
 	/** The longest win streak this player has reached. */
 	private int	mWinStreakLong;
 
+	// Running aggregates, updated one game at a time by recordGame(GameRecord)
+	/** The number of recent games used for the rolling win rate. */
+	public static final int ROLLING_WINDOW = 20;
+	/** The number of difficulty settings games are split by. */
+	public static final int DIFFICULTY_COUNT = 3;
+	/** The number of bytes written by {@link #writeAggregates(DataOutput)}. */
+	public static final int AGGREGATES_SIZE = 4 + 4 + DIFFICULTY_COUNT*(4 + 4) + 4 + 8 + 8;
+
+	/** Results of the most recent games, one bit per game with the newest in the lowest bit. */
+	private int mRecentResults;
+	/** The number of games stored in {@link #mRecentResults}. */
+	private int mRecentCount;
+	/** The number of recorded games played on each difficulty. */
+	private int[] mDifficultyGames;
+	/** The number of recorded games won on each difficulty. */
+	private int[] mDifficultyWins;
+	/** The number of games with a recorded duration and move count. */
+	private int mRecordedGames;
+	/** The total number of milliseconds played over all recorded games. */
+	private long mTotalDuration;
+	/** The total number of moves made over all recorded games. */
+	private long mTotalMoves;
+
 	/**
 	 * Constructs a new set of player stats with the supplied user name.
 	 * @param name The user name to associate with this player's stats.
@@ -54,6 +81,8 @@ public class PlayerStats {
 		mLosses = 0;
 		mWinStreakCur = 0;
 		mWinStreakLong = 0;
+		mDifficultyGames = new int[DIFFICULTY_COUNT];
+		mDifficultyWins = new int[DIFFICULTY_COUNT];
 	}
 	
 	/**
@@ -72,6 +101,8 @@ public class PlayerStats {
 		mLosses = losses;
 		mWinStreakCur = winStreakCur;
 		mWinStreakLong = winStreakLong;
+		mDifficultyGames = new int[DIFFICULTY_COUNT];
+		mDifficultyWins = new int[DIFFICULTY_COUNT];
 	}
 
 	/**
@@ -146,4 +177,126 @@ public class PlayerStats {
 		mLosses++;
 		mWinStreakCur = 0;
 	}
+
+	/**
+	 * Updates this player's stats and running aggregates with a finished game.
+	 * Calls {@link #Win()} or {@link #Lose()} as needed, so it should be used
+	 * in place of them when a {@link GameRecord} is available.
+	 * @param record The record of the finished game.
+	 */
+	public void recordGame(GameRecord record) {
+		boolean won = record.playerWon();
+		if (won) Win();
+		else Lose();
+
+		mRecentResults = ((mRecentResults << 1) | (won ? 1 : 0)) & ((1 << ROLLING_WINDOW) - 1);
+		if (mRecentCount < ROLLING_WINDOW) mRecentCount++;
+
+		int difficulty = record.getDifficulty();
+		if (difficulty >= 0 && difficulty < DIFFICULTY_COUNT) {
+			mDifficultyGames[difficulty]++;
+			if (won) mDifficultyWins[difficulty]++;
+		}
+
+		mRecordedGames++;
+		mTotalDuration += record.getDuration();
+		mTotalMoves += record.getMoves();
+	}
+
+	/**
+	 * Gets the number of recent games used for {@link #getRollingWinRate()}.
+	 * @return The number of recent games, at most {@link #ROLLING_WINDOW}.
+	 */
+	public int getRecentCount() {
+		return mRecentCount;
+	}
+
+	/**
+	 * Gets the percentage of recent games this player has won.
+	 * @return The win percentage over the last {@link #getRecentCount()} games.
+	 * 			Returns 0 if no games have been recorded.
+	 */
+	public double getRollingWinRate() {
+		if (mRecentCount == 0) return 0;
+		return (double)Integer.bitCount(mRecentResults)/(double)mRecentCount*100;
+	}
+
+	/**
+	 * Gets the number of recorded games played on a difficulty.
+	 * @param difficulty The difficulty setting.
+	 * @return The number of games played on the given difficulty.
+	 */
+	public int getDifficultyGames(int difficulty) {
+		return mDifficultyGames[difficulty];
+	}
+
+	/**
+	 * Gets the number of recorded games won on a difficulty.
+	 * @param difficulty The difficulty setting.
+	 * @return The number of games won on the given difficulty.
+	 */
+	public int getDifficultyWins(int difficulty) {
+		return mDifficultyWins[difficulty];
+	}
+
+	/**
+	 * Gets the number of games with a recorded length.
+	 * @return The number of games with a recorded length.
+	 */
+	public int getRecordedGames() {
+		return mRecordedGames;
+	}
+
+	/**
+	 * Gets the average length of this player's recorded games.
+	 * @return The average game length in milliseconds. Returns 0 if
+	 * 			no games have been recorded.
+	 */
+	public long getAverageDuration() {
+		if (mRecordedGames == 0) return 0;
+		return mTotalDuration/mRecordedGames;
+	}
+
+	/**
+	 * Gets the average number of moves made in this player's recorded games.
+	 * @return The average number of moves. Returns 0 if no games have been recorded.
+	 */
+	public double getAverageMoves() {
+		if (mRecordedGames == 0) return 0;
+		return (double)mTotalMoves/(double)mRecordedGames;
+	}
+
+	/**
+	 * Writes the running aggregates for this player.
+	 * @param out The output to write to.
+	 * @throws IOException if an I/O error occurs while writing.
+	 */
+	public void writeAggregates(DataOutput out) throws IOException {
+		out.writeInt(mRecentResults);
+		out.writeInt(mRecentCount);
+		for (int i = 0; i < DIFFICULTY_COUNT; i++) {
+			out.writeInt(mDifficultyGames[i]);
+			out.writeInt(mDifficultyWins[i]);
+		}
+		out.writeInt(mRecordedGames);
+		out.writeLong(mTotalDuration);
+		out.writeLong(mTotalMoves);
+	}
+
+	/**
+	 * Reads the running aggregates written by {@link #writeAggregates(DataOutput)}.
+	 * @param in The input to read from.
+	 * @throws IOException if an I/O error occurs while reading.
+	 */
+	public void readAggregates(DataInput in) throws IOException {
+		mRecentResults = in.readInt();
+		mRecentCount = in.readInt();
+		for (int i = 0; i < DIFFICULTY_COUNT; i++) {
+			mDifficultyGames[i] = in.readInt();
+			mDifficultyWins[i] = in.readInt();
+		}
+		mRecordedGames = in.readInt();
+		mTotalDuration = in.readLong();
+		mTotalMoves = in.readLong();
+	}
 }
@@ -20,62 +20,82 @@
 package com.asparagusprograms.kingsinthecorner;
 
 import java.io.IOException;
-import java.util.ArrayList;
 
 import android.app.Activity;
 import android.content.SharedPreferences;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.view.View;
-import android.view.View.OnClickListener;
-import android.widget.LinearLayout;
+import android.view.ViewGroup;
+import android.widget.AdapterView;
+import android.widget.AdapterView.OnItemClickListener;
+import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
 public class RemoveUserDialog extends Activity {
 	private StatsManager mStatsManager;
+	private PagedStatsAdapter mAdapter;
 
 	/** Called when the activity is first created */
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.remove_user);
-		LinearLayout layout = (LinearLayout)this.findViewById(R.id.LinearLayoutRemoveUser);
+		final ListView list = (ListView)this.findViewById(R.id.ListViewRemoveUser);
 		
 		mStatsManager = new StatsManager(this);	
-		ArrayList<PlayerStats> players = mStatsManager.getPlayerList();
-		
-		for (PlayerStats p : players) {
-			TextView t = new TextView(this);
-			t.setText(p.getName());
-			t.setTextSize(24);
-			t.setClickable(true);
-			t.setOnClickListener(new OnClickListener() {
-				@Override
-				public void onClick(View v) {
-					synchronized(Main.sDataLock) {
-						String name = ((TextView)v).getText().toString();
-						
-						try {
-							mStatsManager.removePlayer(name);
-						} catch (IOException e) {}
-						
-						SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getBaseContext());
-						if (prefs.getString(getResources().getString(R.string.pref_key_username), getResources().getString(R.string.username_none)).equals(name)) {
-							prefs.edit().putString(getResources().getString(R.string.pref_key_username), getResources().getString(R.string.username_none)).commit();
-						}
-						String format = getResources().getString(R.string.toast_usernameDeleted);
-						String string = String.format(format, name);
-						Toast.makeText(getApplicationContext(), string, Toast.LENGTH_SHORT).show();
-					}
-					finish();
+		mAdapter = new PagedStatsAdapter(mStatsManager) {
+			@Override
+			public View getView(int position, View convertView, ViewGroup parent) {
+				TextView t = (TextView)convertView;
+				if (t == null) {
+					t = (TextView)getLayoutInflater().inflate(R.layout.remove_user_item, parent, false);
 				}
-			});
-			TextView blank = new TextView(this);
-			blank.setHeight(24);
-
-			layout.addView(t);
-			layout.addView(blank);
+				t.setText(getItem(position).getName());
+				return t;
+			}
+		};
+		list.setAdapter(mAdapter);
+		list.setOnScrollListener(mAdapter);
+		
+		list.setOnItemClickListener(new OnItemClickListener() {
+			@Override
+			public void onItemClick(AdapterView<?> parent, View v, int position, long id) {
+				// Only one player is removed, so stop any more from being picked
+				list.setEnabled(false);
+				new RemoveTask().execute(mAdapter.getItem(position).getName());
+			}
+		});
+	}
+	
+	/** Removes a player on a background thread, since the whole stats file is rewritten. */
+	private class RemoveTask extends AsyncTask<String, Void, String> {
+		@Override
+		protected String doInBackground(String... params) {
+			try {
+				mStatsManager.removePlayer(params[0]);
+			} catch (IOException e) {}
+			return params[0];
 		}
+		
+		@Override
+		protected void onPostExecute(String name) {
+			SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getBaseContext());
+			if (prefs.getString(getResources().getString(R.string.pref_key_username), getResources().getString(R.string.username_none)).equals(name)) {
+				prefs.edit().putString(getResources().getString(R.string.pref_key_username), getResources().getString(R.string.username_none)).commit();
+			}
+			String format = getResources().getString(R.string.toast_usernameDeleted);
+			String string = String.format(format, name);
+			Toast.makeText(getApplicationContext(), string, Toast.LENGTH_SHORT).show();
+			finish();
+		}
+	}
+	
+	@Override
+	protected void onDestroy() {
+		mAdapter.cancel();
+		super.onDestroy();
 	}
 }
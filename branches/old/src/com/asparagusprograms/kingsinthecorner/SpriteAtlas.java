@@ -0,0 +1,352 @@
+/**
+ * This file is part of Kings in the Corner.
+ *
+ *    Kings in the Corner is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    Kings in the Corner is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with Kings in the Corner.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.asparagusprograms.kingsinthecorner;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import android.content.Context;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.Log;
+
+/**
+ * A set of images packed into a single bitmap. Each image is a
+ * {@link Sprite} that is drawn from its own part of the shared bitmap.
+ * <p>
+ * The first time an atlas is loaded each image is decoded once and
+ * packed, and the packed atlas is saved to the cache directory. After
+ * that the whole atlas is loaded with a single decode, at a lower
+ * resolution if the {@link BitmapBudget} is full. Sprites are drawn at
+ * the same size whatever resolution their atlas was loaded at.
+ */
+public class SpriteAtlas {
+	/** The widest an atlas is allowed to be, in pixels. */
+	private static final int MAX_WIDTH = 1024;
+
+	/** Empty space left around each image so filtered drawing doesn't pick up its neighbors. */
+	private static final int PADDING = 2;
+
+	/** Changes whenever the way atlases are saved changes, so old saved atlases aren't used. */
+	private static final int CACHE_FORMAT = 1;
+
+	/** The packed images. */
+	private final Bitmap mBitmap;
+
+	/** The part of the full size atlas holding each image. */
+	private final Rect[] mBounds;
+
+	/** The images, in the order their resources were given. */
+	private final Sprite[] mSprites;
+
+	/**
+	 * Constructs an atlas from a packed bitmap.
+	 * @param bitmap The packed images.
+	 * @param bounds The part of the full size atlas holding each image.
+	 * @param sampleSize How many times smaller the bitmap is than the full size atlas.
+	 */
+	private SpriteAtlas(Bitmap bitmap, Rect[] bounds, int sampleSize) {
+		mBitmap = bitmap;
+		mBounds = bounds;
+		mSprites = new Sprite[bounds.length];
+		for (int i = 0; i < bounds.length; i++) {
+			Rect b = bounds[i];
+			// Round inward, so a sprite never picks up its neighbors' padding
+			Rect source = new Rect((b.left + sampleSize - 1) / sampleSize, (b.top + sampleSize - 1) / sampleSize,
+					b.right / sampleSize, b.bottom / sampleSize);
+			mSprites[i] = new Sprite(bitmap, source, b.width(), b.height(), 0);
+		}
+	}
+
+	/**
+	 * Gets an image from this atlas.
+	 * @param index The index of the image's resource when the atlas was loaded.
+	 * @return The image.
+	 */
+	public Sprite getSprite(int index) {
+		return mSprites[index];
+	}
+
+	/**
+	 * Gets the number of images in this atlas.
+	 * @return The number of images.
+	 */
+	public int getSpriteCount() {
+		return mSprites.length;
+	}
+
+	/**
+	 * Gets the memory used by this atlas.
+	 * @return The size of the packed bitmap in bytes.
+	 */
+	public long getByteCount() {
+		return BitmapBudget.sizeOf(mBitmap);
+	}
+
+	/**
+	 * Gives this atlas's memory back to the {@link BitmapBudget} when it is no
+	 * longer kept. The bitmap isn't recycled, since cards may still be drawing
+	 * from it, so it stays charged until the last of its sprites is collected.
+	 */
+	public void release() {
+		BitmapBudget.releaseWhenUnused(mBitmap);
+	}
+
+	/**
+	 * Loads an atlas, from the cache directory if it has been packed
+	 * before, otherwise by decoding and packing each image.
+	 * @param context The context used to get image resources.
+	 * @param name The name the atlas is saved under. Must be unique to this set of images.
+	 * @param ids The image resources to pack.
+	 * @return The atlas.
+	 */
+	public static SpriteAtlas load(Context context, String name, int[] ids) {
+		String key = getCacheKey(context, ids);
+		File imageFile = new File(context.getCacheDir(), name + ".png");
+		File indexFile = new File(context.getCacheDir(), name + ".idx");
+
+		SpriteAtlas atlas = readCache(imageFile, indexFile, key, ids.length);
+		if (atlas == null) {
+			atlas = pack(context.getResources(), ids);
+			writeCache(atlas, imageFile, indexFile, key);
+
+			// Packing needs every image at full size, so if that filled the
+			// budget, load the saved atlas again at a resolution that fits
+			if (BitmapBudget.isOverLimit()) {
+				SpriteAtlas sampled = readCache(imageFile, indexFile, key, ids.length);
+				if (sampled != null) {
+					BitmapBudget.release(atlas.mBitmap);
+					atlas.mBitmap.recycle();
+					atlas = sampled;
+				}
+			}
+		}
+		return atlas;
+	}
+
+	/**
+	 * Gets the memory a saved atlas uses when loaded at full size, without loading it.
+	 * @param context The context used to find the cache directory.
+	 * @param name The name the atlas is saved under.
+	 * @return The size of the saved atlas in bytes, or 0 if it hasn't been saved.
+	 */
+	public static long getSavedByteCount(Context context, String name) {
+		File imageFile = new File(context.getCacheDir(), name + ".png");
+		if (!imageFile.exists()) return 0;
+		BitmapFactory.Options options = BitmapBudget.decodeFileBounds(imageFile.getPath());
+		return (long)Math.max(options.outWidth, 0) * Math.max(options.outHeight, 0) * 4;
+	}
+
+	/**
+	 * Decodes each image and packs them into a new atlas. Images are placed
+	 * left to right in rows, starting a new row when a row is full.
+	 * @param res The resources to decode the images from.
+	 * @param ids The image resources to pack.
+	 * @return The atlas.
+	 */
+	private static SpriteAtlas pack(Resources res, int[] ids) {
+		Bitmap[] images = new Bitmap[ids.length];
+		Rect[] bounds = new Rect[ids.length];
+
+		int x = 0, y = 0, rowHeight = 0, width = 0;
+		for (int i = 0; i < ids.length; i++) {
+			images[i] = BitmapBudget.decodeResource(res, ids[i], Bitmap.Config.ARGB_8888);
+			int w = images[i].getWidth() + 2*PADDING;
+			int h = images[i].getHeight() + 2*PADDING;
+
+			if (x > 0 && x + w > MAX_WIDTH) {
+				x = 0;
+				y += rowHeight;
+				rowHeight = 0;
+			}
+			bounds[i] = new Rect(x + PADDING, y + PADDING, x + w - PADDING, y + h - PADDING);
+			x += w;
+			rowHeight = Math.max(rowHeight, h);
+			width = Math.max(width, x);
+		}
+
+		Bitmap bitmap = BitmapBudget.createBitmap(width, y + rowHeight, Bitmap.Config.ARGB_8888);
+		Canvas canvas = new Canvas(bitmap);
+		for (int i = 0; i < ids.length; i++) {
+			canvas.drawBitmap(images[i], null, bounds[i], null);
+			// Only the atlas is kept, so the separate images can go right away
+			BitmapBudget.release(images[i]);
+			images[i].recycle();
+		}
+
+		return new SpriteAtlas(bitmap, bounds, 1);
+	}
+
+	/**
+	 * Gets the key used to make sure a saved atlas matches the images
+	 * that would be packed now.
+	 */
+	private static String getCacheKey(Context context, int[] ids) {
+		int versionCode = 0;
+		try {
+			versionCode = context.getPackageManager().getPackageInfo(context.getPackageName(), 0).versionCode;
+		} catch (NameNotFoundException e) { }
+
+		return CACHE_FORMAT + ":" + versionCode + ":" + context.getResources().getDisplayMetrics().densityDpi +
+				":" + Arrays.hashCode(ids);
+	}
+
+	/**
+	 * Reads a saved atlas.
+	 * @return The atlas, or null if there isn't a matching saved atlas.
+	 */
+	private static SpriteAtlas readCache(File imageFile, File indexFile, String key, int count) {
+		if (!imageFile.exists() || !indexFile.exists()) return null;
+
+		Rect[] bounds = new Rect[count];
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(indexFile));
+			try {
+				if (!in.readUTF().equals(key) || in.readInt() != count) return null;
+				for (int i = 0; i < count; i++) {
+					bounds[i] = new Rect(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return null;
+		}
+
+		int fullWidth = BitmapBudget.decodeFileBounds(imageFile.getPath()).outWidth;
+		Bitmap bitmap = BitmapBudget.decodeFile(imageFile.getPath(), Bitmap.Config.ARGB_8888);
+		if (bitmap == null) return null;
+
+		int sampleSize = Math.max(Math.round((float)fullWidth / bitmap.getWidth()), 1);
+		return new SpriteAtlas(bitmap, bounds, sampleSize);
+	}
+
+	/**
+	 * Saves an atlas so it can be loaded with a single decode next time.
+	 * The index is written last, so a partly written atlas is never used.
+	 */
+	private static void writeCache(SpriteAtlas atlas, File imageFile, File indexFile, String key) {
+		indexFile.delete();
+		try {
+			FileOutputStream fos = new FileOutputStream(imageFile);
+			try {
+				atlas.mBitmap.compress(Bitmap.CompressFormat.PNG, 100, fos);
+			} finally {
+				fos.close();
+			}
+
+			DataOutputStream out = new DataOutputStream(new FileOutputStream(indexFile));
+			try {
+				out.writeUTF(key);
+				out.writeInt(atlas.mBounds.length);
+				for (Rect b : atlas.mBounds) {
+					out.writeInt(b.left);
+					out.writeInt(b.top);
+					out.writeInt(b.right);
+					out.writeInt(b.bottom);
+				}
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			// The atlas still works, it will just be packed again next time
+			Log.e("IOEx", e.toString());
+			indexFile.delete();
+		}
+	}
+
+	/** A single image in an atlas. */
+	public static class Sprite {
+		/** The atlas bitmap this image is drawn from. */
+		private final Bitmap mAtlas;
+		/** The part of the atlas holding this image. */
+		private final Rect mBounds;
+		/** The width this image is drawn at, whatever the resolution of the atlas. */
+		private final int mWidth;
+		/** The height this image is drawn at, whatever the resolution of the atlas. */
+		private final int mHeight;
+		/** The rotation of this image when drawn, in degrees. */
+		private final int mRotation;
+		/** Where this image is drawn. Reused so drawing does not allocate. */
+		private final RectF mDest = new RectF();
+
+		private Sprite(Bitmap atlas, Rect bounds, int width, int height, int rotation) {
+			mAtlas = atlas;
+			mBounds = bounds;
+			mWidth = width;
+			mHeight = height;
+			mRotation = rotation;
+		}
+
+		/**
+		 * Gets the width of this image.
+		 * @return The width of this image in pixels.
+		 */
+		public int getWidth() {
+			return mWidth;
+		}
+
+		/**
+		 * Gets the height of this image.
+		 * @return The height of this image in pixels.
+		 */
+		public int getHeight() {
+			return mHeight;
+		}
+
+		/**
+		 * Gets this same image drawn rotated around its center. The
+		 * new sprite shares the atlas, so this does not copy any pixels.
+		 * @param degrees The number of degrees to rotate the image.
+		 * @return The rotated image.
+		 */
+		public Sprite rotated(int degrees) {
+			return new Sprite(mAtlas, mBounds, mWidth, mHeight, degrees);
+		}
+
+		/**
+		 * Draws this image to a canvas. Must only be called from the thread that draws the game.
+		 * @param c The canvas to draw to.
+		 * @param left The x-coordinate for the left side of the image.
+		 * @param top The y-coordinate for the top of the image.
+		 * @param paint The paint to use when drawing. May be null.
+		 */
+		public void draw(Canvas c, float left, float top, Paint paint) {
+			mDest.set(left, top, left + mWidth, top + mHeight);
+			if (mRotation == 0) {
+				c.drawBitmap(mAtlas, mBounds, mDest, paint);
+			} else {
+				c.save();
+				c.rotate(mRotation, mDest.centerX(), mDest.centerY());
+				c.drawBitmap(mAtlas, mBounds, mDest, paint);
+				c.restore();
+			}
+		}
+	}
+}
@@ -20,119 +20,137 @@
 package com.asparagusprograms.kingsinthecorner;
 
 import java.text.DecimalFormat;
-import java.util.ArrayList;
 
 import android.app.Activity;
-import android.graphics.Color;
-import android.graphics.Typeface;
 import android.os.Bundle;
-import android.view.ViewGroup.LayoutParams;
-import android.widget.LinearLayout;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ListView;
 import android.widget.TextView;
 
 public class StatisticsActivity extends Activity {	
+	/** The adapter loading and showing each player's stats. */
+	private StatsAdapter mAdapter;
+	
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.stats);		
 		initialize();
 	}
+	
+	@Override
+	protected void onDestroy() {
+		mAdapter.cancel();
+		super.onDestroy();
+	}
 
-	/** Gets the stored player stats from the {@link StatsManager}
-	 * and calls <code>addStats(PlayerStats playerStats)</code>
-	 * for each set of stats.
+	/**
+	 * Sets up the list of player stats. The stats are loaded from the
+	 * {@link StatsManager} in the background a page at a time, and
+	 * only the rows on screen are built.
 	 */
 	public void initialize() {
-		StatsManager sm = new StatsManager(this);
-		ArrayList<PlayerStats> players = sm.getPlayerList();
-		for (PlayerStats playerStats : players) {
-			addStats(playerStats);
-		}
+		mAdapter = new StatsAdapter(new StatsManager(this));
+		ListView list = (ListView)findViewById(R.id.ListViewStats);
+		list.setAdapter(mAdapter);
+		list.setOnScrollListener(mAdapter);
 	}
 
+	/** Holds the views for a row of stats so they are only looked up once. */
+	private static class ViewHolder {
+		TextView name, total, win, lose, curStreak, longStreak, recent, avgLength, difficulty;
+	}
 	
-	
-	/**
-	 * Adds the views to dispay a player's stats.
-	 * @param playerStats the player's stats to add.
-	 */
-	private void addStats(PlayerStats playerStats) {
-		if (playerStats == null) return;
-		TextView name = new TextView(this);
-		name.setText(playerStats.getName());
-
-		TextView total = new TextView(this);
-		String format = (getResources().getString(R.string.stats_games));
-		int games = playerStats.getTotal();
-		total.setText(String.format(format, games));
-
-		TextView win = new TextView(this);
-		format = (getResources().getString(R.string.stats_won));
-		DecimalFormat df = new DecimalFormat("0.#");
-		int wins = playerStats.getWins();
-		double percentWins = 
-			(wins > 0 && games > 0) ? (double)wins/(double)games*100 : 0;
-		win.setText(String.format(format, wins, df.format(percentWins)));
-
-		TextView lose = new TextView(this);
-		int losses = playerStats.getLosses();
-		double percentLosses = 
-			(losses > 0 && games > 0) ? (double)losses/(double)games*100 : 0;
+	/** Shows the stats for each player, reusing rows that have been scrolled off screen. */
+	private class StatsAdapter extends PagedStatsAdapter {
+		private final DecimalFormat mFormat = new DecimalFormat("0.#");
+		private final String[] mDifficulties = getResources().getStringArray(R.array.entries_difficulty);
+		
+		public StatsAdapter(StatsManager statsManager) {
+			super(statsManager);
+		}
+		
+		@Override
+		public View getView(int position, View convertView, ViewGroup parent) {
+			ViewHolder holder;
+			if (convertView == null) {
+				convertView = getLayoutInflater().inflate(R.layout.stats_item, parent, false);
+				holder = new ViewHolder();
+				holder.name = (TextView)convertView.findViewById(R.id.StatsName);
+				holder.total = (TextView)convertView.findViewById(R.id.StatsTotal);
+				holder.win = (TextView)convertView.findViewById(R.id.StatsWon);
+				holder.lose = (TextView)convertView.findViewById(R.id.StatsLost);
+				holder.curStreak = (TextView)convertView.findViewById(R.id.StatsCurStreak);
+				holder.longStreak = (TextView)convertView.findViewById(R.id.StatsLongStreak);
+				holder.recent = (TextView)convertView.findViewById(R.id.StatsRecent);
+				holder.avgLength = (TextView)convertView.findViewById(R.id.StatsAvgLength);
+				holder.difficulty = (TextView)convertView.findViewById(R.id.StatsDifficulty);
+				convertView.setTag(holder);
+			} else {
+				holder = (ViewHolder)convertView.getTag();
+			}
+			bindStats(holder, getItem(position));
+			return convertView;
+		}
+		
+		/**
+		 * Fills in a row with a player's stats.
+		 * @param holder the views for the row.
+		 * @param playerStats the player's stats to show.
+		 */
+		private void bindStats(ViewHolder holder, PlayerStats playerStats) {
+			holder.name.setText(playerStats.getName());
+
+			String format = (getResources().getString(R.string.stats_games));
+			int games = playerStats.getTotal();
+			holder.total.setText(String.format(format, games));
+
+			format = (getResources().getString(R.string.stats_won));
+			int wins = playerStats.getWins();
+			double percentWins = 
+				(wins > 0 && games > 0) ? (double)wins/(double)games*100 : 0;
+			holder.win.setText(String.format(format, wins, mFormat.format(percentWins)));
+
+			int losses = playerStats.getLosses();
+			double percentLosses = 
+				(losses > 0 && games > 0) ? (double)losses/(double)games*100 : 0;
 			format = (getResources().getString(R.string.stats_lost));
-		lose.setText(String.format(format, losses, df.format(percentLosses)));
-
-		TextView curStreak = new TextView(this);
-		format = (getResources().getString(R.string.stats_cstreak));
-		curStreak.setText(String.format(format, playerStats.getWinStreakCur()));
-
-		TextView longStreak = new TextView(this);
-		format = (getResources().getString(R.string.stats_lstreak));
-		longStreak.setText(String.format(format, playerStats.getWinStreakLong()));
-
-		LayoutParams lp = new LayoutParams(
-		LayoutParams.FILL_PARENT, LayoutParams.WRAP_CONTENT);
-		name.setLayoutParams(lp);
-		name.setTextColor(Color.WHITE);
-		name.setTextSize(24);
-		name.setPadding(0, 0, 0, 2);
-		name.setTypeface(Typeface.SANS_SERIF, Typeface.BOLD_ITALIC);
-
-		total.setLayoutParams(lp);
-		total.setTextSize(20);
-		total.setBackgroundColor(getResources().getColor(R.color.bg_gray));
-		total.setPadding(0, 0, 0, 4);
-
-		win.setLayoutParams(lp);
-		win.setTextSize(20);
-		win.setBackgroundColor(getResources().getColor(R.color.bg_dkgray));
-		win.setPadding(0, 0, 0, 4);
-
-		lose.setLayoutParams(lp);
-		lose.setTextSize(20);
-		lose.setBackgroundColor(getResources().getColor(R.color.bg_gray));
-		lose.setPadding(0, 0, 0, 4);
-
-		curStreak.setLayoutParams(lp);
-		curStreak.setTextSize(20);
-		curStreak.setBackgroundColor(getResources().getColor(R.color.bg_dkgray));
-		curStreak.setPadding(0, 0, 0, 4);
-
-		longStreak.setLayoutParams(lp);
-		longStreak.setTextSize(20);
-		longStreak.setBackgroundColor(getResources().getColor(R.color.bg_gray));
-		longStreak.setPadding(0, 0, 0, 4);
-
-		LinearLayout layout = (LinearLayout)findViewById(R.id.LinearLayoutStats);
-		layout.addView(name);
-		layout.addView(total);
-		layout.addView(win);
-		layout.addView(lose);
-		layout.addView(curStreak);
-		layout.addView(longStreak);
-
-		TextView blank = new TextView(this);
-		blank.setLayoutParams(lp);
-		blank.setHeight(15);
-		layout.addView(blank);
+			holder.lose.setText(String.format(format, losses, mFormat.format(percentLosses)));
+
+			format = (getResources().getString(R.string.stats_cstreak));
+			holder.curStreak.setText(String.format(format, playerStats.getWinStreakCur()));
+
+			format = (getResources().getString(R.string.stats_lstreak));
+			holder.longStreak.setText(String.format(format, playerStats.getWinStreakLong()));
+
+			// Running aggregates from the player's game history
+			if (playerStats.getRecordedGames() == 0) {
+				holder.recent.setVisibility(View.GONE);
+				holder.avgLength.setVisibility(View.GONE);
+				holder.difficulty.setVisibility(View.GONE);
+				return;
+			}
+			
+			format = (getResources().getString(R.string.stats_recent));
+			holder.recent.setText(String.format(format, playerStats.getRecentCount(), mFormat.format(playerStats.getRollingWinRate())));
+			holder.recent.setVisibility(View.VISIBLE);
+
+			format = (getResources().getString(R.string.stats_avgLength));
+			long seconds = playerStats.getAverageDuration()/1000;
+			holder.avgLength.setText(String.format(format, seconds/60, seconds%60, mFormat.format(playerStats.getAverageMoves())));
+			holder.avgLength.setVisibility(View.VISIBLE);
+
+			format = (getResources().getString(R.string.stats_difficulty));
+			StringBuilder difficulty = new StringBuilder();
+			for (int i = 0; i < PlayerStats.DIFFICULTY_COUNT; i++) {
+				int difficultyGames = playerStats.getDifficultyGames(i);
+				if (difficultyGames == 0) continue;
+				if (difficulty.length() > 0) difficulty.append('\n');
+				difficulty.append(String.format(format, mDifficulties[i], playerStats.getDifficultyWins(i), difficultyGames));
+			}
+			holder.difficulty.setText(difficulty);
+			holder.difficulty.setVisibility(View.VISIBLE);
+		}
 	}
 }
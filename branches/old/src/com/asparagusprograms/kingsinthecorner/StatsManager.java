@@ -18,12 +18,15 @@
  */
 package com.asparagusprograms.kingsinthecorner;
 
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.HashSet;
 
 import android.content.Context;
 import android.preference.PreferenceManager;
@@ -34,10 +37,34 @@ import android.util.Log;
  * It handles all reading and writing to the file
  * containing player stats and has various methods to
  * obtain data about the stored stats.
+ * <p>
+ * The stats file is never changed in place. Changes are written to a
+ * temporary file which then replaces the stats file, so anything that
+ * already has the stats file open, such as the backup agent, keeps
+ * reading a complete, consistent copy without holding a lock.
  */
 public class StatsManager {
 	public static final String STATS_FILE_NAME = "Stats";
 	
+	/** Appended to a player's name to get the file holding their game history. */
+	public static final String HISTORY_FILE_SUFFIX = "_history.dat";
+	
+	/**
+	 * The current version of the stats file format. Files starting with a
+	 * non-negative player count are version 1, which has no running aggregates.
+	 * Newer files start with the negated version followed by the player count.
+	 */
+	private static final int STATS_FORMAT_VERSION = 2;
+	
+	/** Appended to the stats file name for the file changes are written to before committing. */
+	private static final String COMMIT_SUFFIX = ".tmp";
+	
+	/** Appended to the stats file name for the file old stats are combined into before committing. */
+	private static final String MIGRATION_SUFFIX = ".migrate";
+	
+	/** Appended to an old player file that could not be read, so it is kept but not combined again. */
+	private static final String UNREADABLE_SUFFIX = ".bad";
+	
 	// Is BackupManager available and will we be using it?
 	private boolean mAllowBackupManager;
 	private static boolean mBackupManagerAvailable;
@@ -54,6 +81,20 @@ public class StatsManager {
 	private Context mContext;
 	private File mDataFile;
 	
+	/** The lock guarding the stats file. */
+	private final StorageLock mStatsLock = StorageLock.forFile(STATS_FILE_NAME);
+	
+	/** Increased each time the stats file is replaced. Only changed while holding the stats write lock. */
+	private static volatile int sFileVersion;
+	
+	/** Guards the player index, which is shared by every StatsManager. */
+	private static final Object sIndexLock = new Object();
+	/** Where each player's record starts in the stats file, or null until a page is read. */
+	private static long[] sIndex;
+	/** The {@link #sFileVersion}, length and modification time of the stats file {@link #sIndex} was made for. */
+	private static int sIndexVersion;
+	private static long sIndexLength, sIndexModified;
+	
 	/** 
 	 * Construct a new StatsManager for the given Context.
 	 */
@@ -79,19 +120,106 @@ public class StatsManager {
 		ArrayList<PlayerStats> players = new ArrayList<PlayerStats>();
 		int numPlayers = 0;
 		try {
-			synchronized(Main.sDataLock) {
+			mStatsLock.lockRead();
+			try {
 				RandomAccessFile file = new RandomAccessFile(mDataFile, "r");
+				try {
+					int version = readVersion(file);
+					numPlayers = file.readInt();
+					for (int i = 0; i < numPlayers; i++) {
+						players.add(readPlayer(file, version));
+					}
+				} finally {
+					file.close();
+				}
+			} finally {
+				mStatsLock.unlockRead();
+			}
+		} catch (IOException e) { }
 
-				numPlayers = file.readInt();
-				for (int i = 0; i < numPlayers; i++) {
-					players.add(readPlayer(file));
+		return players;
+	}
+	
+	/**
+	 * Reads a page of players from the stored stats. The file is read
+	 * from the start of the page, found in an index of where each player
+	 * starts, so only the requested players are read. The index is made
+	 * the first time a page is read after the stats file changes.
+	 * @param start the index of the first player to read.
+	 * @param count the maximum number of players to read.
+	 * @return a list of at most count players, starting at the given
+	 * index. Returns an empty list if there are no players in the range
+	 * or an I/O error occurs while reading from the file.
+	 */
+	public ArrayList<PlayerStats> getPlayers(int start, int count) {
+		ArrayList<PlayerStats> players = new ArrayList<PlayerStats>();
+		try {
+			mStatsLock.lockRead();
+			try {
+				RandomAccessFile file = new RandomAccessFile(mDataFile, "r");
+				try {
+					int version = readVersion(file);
+					int numPlayers = file.readInt();
+					int end = Math.min(numPlayers, start+count);
+					if (start < end) file.seek(getIndex(file, version, numPlayers)[start]);
+					for (int i = start; i < end; i++) {
+						players.add(readPlayer(file, version));
+					}
+				} finally {
+					file.close();
 				}
+			} finally {
+				mStatsLock.unlockRead();
 			}
 		} catch (IOException e) { }
 
 		return players;
 	}
 	
+	/**
+	 * Gets where each player's record starts in the stats file, making the
+	 * index if the file has changed since it was made. Must be called while
+	 * holding the stats read lock.
+	 * @param file the stats file, with its pointer at the first player.
+	 * @param version the format version of the file.
+	 * @param numPlayers the number of players in the file.
+	 * @return the offset of each player's record, by index.
+	 * @throws IOException if an I/O error occurs while reading from the file.
+	 */
+	private long[] getIndex(RandomAccessFile file, int version, int numPlayers) throws IOException {
+		// The file can't be replaced while the read lock is held
+		int fileVersion = sFileVersion;
+		long length = file.length();
+		long modified = mDataFile.lastModified();
+		synchronized (sIndexLock) {
+			if (sIndex != null && sIndexVersion == fileVersion && sIndexLength == length && sIndexModified == modified) {
+				return sIndex;
+			}
+		}
+		
+		long[] index = new long[numPlayers];
+		for (int i = 0; i < numPlayers; i++) {
+			index[i] = file.getFilePointer();
+			skipPlayer(file, version);
+		}
+		synchronized (sIndexLock) {
+			sIndex = index;
+			sIndexVersion = fileVersion;
+			sIndexLength = length;
+			sIndexModified = modified;
+		}
+		return index;
+	}
+	
+	/**
+	 * Marks the stats file as replaced, so the player index is made again.
+	 * Must be called while holding the stats write lock, such as after the
+	 * file is restored from a backup.
+	 */
+	static void statsFileReplaced() {
+		sFileVersion++;
+	}
+	
 	/**
 	 * Gets the number of players with stored stats. Slightly
 	 * faster than calling getPlayerList().size() because it only
@@ -105,9 +233,17 @@ public class StatsManager {
 	public int getPlayerCount() {
 		int numPlayers = 0;
 		try {
-			synchronized(Main.sDataLock) {
-				RandomAccessFile file = new RandomAccessFile(mDataFile, "r");			
-				numPlayers = file.readInt();
+			mStatsLock.lockRead();
+			try {
+				RandomAccessFile file = new RandomAccessFile(mDataFile, "r");
+				try {
+					readVersion(file);
+					numPlayers = file.readInt();
+				} finally {
+					file.close();
+				}
+			} finally {
+				mStatsLock.unlockRead();
 			}
 		} catch (IOException e) { }
 		return numPlayers;
@@ -123,24 +259,23 @@ public class StatsManager {
 	 * @throws IOException if an I/O error occurs while reading from or writing to the file.
 	 */
 	public boolean addNewPlayer(String name) throws IOException {
-		ArrayList<PlayerStats> players = getPlayerList();
-		
-		// Check if a Player with the same name already exists
-		for (PlayerStats p : players) {
-			if (p.getName().toLowerCase().equals(name.toLowerCase())) {
-				return false;
+		mStatsLock.lockWrite();
+		try {
+			ArrayList<PlayerStats> players = getPlayerList();
+			
+			// Check if a Player with the same name already exists
+			for (PlayerStats p : players) {
+				if (p.getName().toLowerCase().equals(name.toLowerCase())) {
+					return false;
+				}
 			}
+			
+			// If the Player is not a duplicate, add the new Player
+			players.add(new PlayerStats(name));
+			commitPlayers(players);
+		} finally {
+			mStatsLock.unlockWrite();
 		}
-		
-		// If the Player is not a duplicate, add the new Player
-		RandomAccessFile file = new RandomAccessFile(mDataFile, "rw");
-		file.setLength(0L);
-
-		file.writeInt(players.size()+1);		
-		for (PlayerStats p : players) {
-			writePlayer(p, file);
-		}
-		writePlayer(new PlayerStats(name), file);
 
 		if (mWrapBackupManager != null && mAllowBackupManager)
 			mWrapBackupManager.dataChanged();
@@ -156,27 +291,34 @@ public class StatsManager {
 	 * @throws IOException if an I/O error occurs while reading from or writing to the file.
 	 */
 	public void removePlayer(String name) throws IOException {
-		ArrayList<PlayerStats> players = getPlayerList();
-		
-		RandomAccessFile file = new RandomAccessFile(mDataFile, "rw");
-		file.setLength(0L);
-		
-		/**
-		 * Create a new list of players to keep in case a player
-		 * with the given name is not found. This way the size
-		 * will be correct when writing the number of players
-		 * regardless of whether or not a player was actually removed.
-		 */
-		ArrayList<PlayerStats> keptPlayers = new ArrayList<PlayerStats>();		
-		for (PlayerStats p : players) {
-			if (!p.getName().equals(name)) {
-				keptPlayers.add(p);
+		mStatsLock.lockWrite();
+		try {
+			ArrayList<PlayerStats> players = getPlayerList();
+			
+			/**
+			 * Create a new list of players to keep in case a player
+			 * with the given name is not found. This way the size
+			 * will be correct when writing the number of players
+			 * regardless of whether or not a player was actually removed.
+			 */
+			ArrayList<PlayerStats> keptPlayers = new ArrayList<PlayerStats>();		
+			for (PlayerStats p : players) {
+				if (!p.getName().equals(name)) {
+					keptPlayers.add(p);
+				}
 			}
-		}
-		
-		file.writeInt(keptPlayers.size());
-		for (PlayerStats p : keptPlayers) {
-			writePlayer(p, file);
+			commitPlayers(keptPlayers);
+			
+			// The game history is only useful alongside the player's stats
+			StorageLock historyLock = StorageLock.forFile(name + HISTORY_FILE_SUFFIX);
+			historyLock.lockWrite();
+			try {
+				mContext.deleteFile(name + HISTORY_FILE_SUFFIX);
+			} finally {
+				historyLock.unlockWrite();
+			}
+		} finally {
+			mStatsLock.unlockWrite();
 		}
 		
 		if (mWrapBackupManager != null && mAllowBackupManager)
@@ -185,33 +327,118 @@ public class StatsManager {
 	
 	/**
 	 * Update stats for the player with the given name based
-	 * on whether they won or lost a game. If a player with the
-	 * given name is not found, no stats are changed.
+	 * on a finished game and append the game to their history.
+	 * If a player with the given name is not found, no stats
+	 * are changed and no history is written.
 	 * @param name the name of the player to update stats for.
-	 * @param playerWon true if the player won the game; false if the player lost the game.
+	 * @param record the record of the finished game.
 	 * @throws IOException if an I/O error occurs while reading from or writing to the file.
 	 */
-	public void playerFinishedGame(String name, boolean playerWon) throws IOException {
-		ArrayList<PlayerStats> players = getPlayerList();
+	public void playerFinishedGame(String name, GameRecord record) throws IOException {
+		boolean found = false;
 
-		synchronized(Main.sDataLock) {				
-			RandomAccessFile file = new RandomAccessFile(mDataFile, "rw");
-			file.setLength(0L);
-
-			file.writeInt(players.size());
+		mStatsLock.lockWrite();
+		try {
+			ArrayList<PlayerStats> players = getPlayerList();
 			for (PlayerStats p : players) {
 				if (p.getName().equals(name)) {
-					if (playerWon) p.Win();
-					else p.Lose();
+					p.recordGame(record);
+					found = true;
 				}
-				writePlayer(p, file);
 			}
+			if (!found) return;
+			
+			commitPlayers(players);
+			appendHistory(name, record);
+		} finally {
+			mStatsLock.unlockWrite();
 		}
 
 		if (mWrapBackupManager != null && mAllowBackupManager)
 			mWrapBackupManager.dataChanged();
 	}
 	
+	/**
+	 * Appends a game to the end of a player's history file.
+	 * @param name the name of the player.
+	 * @param record the game to append.
+	 * @throws IOException if an I/O error occurs while writing to the file.
+	 */
+	private void appendHistory(String name, GameRecord record) throws IOException {
+		StorageLock historyLock = StorageLock.forFile(name + HISTORY_FILE_SUFFIX);
+		historyLock.lockWrite();
+		try {
+			FileOutputStream fos = mContext.openFileOutput(name + HISTORY_FILE_SUFFIX, Context.MODE_APPEND);
+			DataOutputStream out = new DataOutputStream(fos);
+			try {
+				record.write(out);
+				out.flush();
+			} finally {
+				out.close();
+			}
+		} finally {
+			historyLock.unlockWrite();
+		}
+	}
+	
+	/**
+	 * Replaces the stats file with the given players. The players are written
+	 * to a temporary file, which is synced to disk and then renamed over the
+	 * stats file, so the stats file is always either entirely old or entirely new.
+	 * Must be called while holding the stats write lock.
+	 * @param players the players to store.
+	 * @throws IOException if an I/O error occurs while writing to the file.
+	 */
+	private void commitPlayers(ArrayList<PlayerStats> players) throws IOException {
+		File tempFile = new File(mContext.getFilesDir(), STATS_FILE_NAME + COMMIT_SUFFIX);
+		RandomAccessFile file = new RandomAccessFile(tempFile, "rw");
+		try {
+			file.setLength(0L);
+			
+			writeHeader(players.size(), file);
+			for (PlayerStats p : players) {
+				writePlayer(p, file);
+			}
+			file.getFD().sync();
+		} finally {
+			file.close();
+		}
+		
+		if (!tempFile.renameTo(mDataFile)) {
+			tempFile.delete();
+			throw new IOException("Could not replace " + STATS_FILE_NAME);
+		}
+		statsFileReplaced();
+	}
+	
+	/**
+	 * Writes the header for the stats file, starting at the current file pointer.
+	 * @param numPlayers the number of players that will follow the header.
+	 * @param file the file to write to.
+	 * @throws IOException if an I/O error occurs while writing to the file.
+	 */
+	private void writeHeader(int numPlayers, RandomAccessFile file) throws IOException {
+		file.writeInt(-STATS_FORMAT_VERSION);
+		file.writeInt(numPlayers);
+	}
+	
+	/**
+	 * Reads the format version of the stats file and leaves the file
+	 * pointer at the number of players.
+	 * @param file the file to read from, with its pointer at the start.
+	 * @return the format version of the file.
+	 * @throws IOException if an I/O error occurs while reading from the file.
+	 */
+	private int readVersion(RandomAccessFile file) throws IOException {
+		int first = file.readInt();
+		if (first >= 0) {
+			// Version 1 files start with the player count
+			file.seek(0L);
+			return 1;
+		}
+		return -first;
+	}
+	
 	/**
 	 * Writes a player to a file, starting at the current file pointer.
 	 * @param p the player to write to the file.
@@ -225,15 +452,17 @@ public class StatsManager {
 		file.writeInt(p.getLosses());
 		file.writeInt(p.getWinStreakCur());
 		file.writeInt(p.getWinStreakLong());
+		p.writeAggregates(file);
 	}
 	
 	/**
 	 * Reads a player from a file, starting at the current file pointer.
 	 * @param file the file to read from.
+	 * @param version the format version of the file.
 	 * @return the player read from the file.
 	 * @throws IOException if an I/O error occurs while reading from the file.
 	 */
-	private PlayerStats readPlayer(RandomAccessFile file) throws IOException {
+	private PlayerStats readPlayer(RandomAccessFile file, int version) throws IOException {
 		String name = file.readUTF();
 		int totalGames = file.readInt();
 		int wins = file.readInt();
@@ -241,55 +470,171 @@ public class StatsManager {
 		int wsc = file.readInt();
 		int wsl = file.readInt();
 		
-		return new PlayerStats(name, totalGames, wins, losses, wsc, wsl);
+		PlayerStats p = new PlayerStats(name, totalGames, wins, losses, wsc, wsl);
+		if (version >= 2) p.readAggregates(file);
+		return p;
+	}
+	
+	/**
+	 * Skips over a player in a file, starting at the current file pointer.
+	 * @param file the file to read from.
+	 * @param version the format version of the file.
+	 * @throws IOException if an I/O error occurs while reading from the file.
+	 */
+	private void skipPlayer(RandomAccessFile file, int version) throws IOException {
+		// Skip the name, which is prefixed by its length, and the fixed size stats
+		int nameLength = file.readUnsignedShort();
+		int statsLength = 5*4;
+		if (version >= 2) statsLength += PlayerStats.AGGREGATES_SIZE;
+		file.seek(file.getFilePointer() + nameLength + statsLength);
+	}
+	
+	/** Receives progress updates while old stats are being combined. */
+	public interface MigrationListener {
+		/**
+		 * Called after each old player file has been read.
+		 * @param done the number of old player files read so far.
+		 * @param total the total number of old player files.
+		 */
+		void onMigrationProgress(int done, int total);
+	}
+	
+	/**
+	 * Gets the old player stats files that still need to be combined
+	 * into the single stats file.
+	 * @return the names of the old player files.
+	 */
+	public ArrayList<String> getSplitStatsFiles() {
+		ArrayList<String> oldFiles = new ArrayList<String>();
+		for (String file : mContext.fileList()) {
+			// Old player files are named after the player, which can't contain a period
+			if (!file.contains(".") && !file.equals(STATS_FILE_NAME)) {
+				oldFiles.add(file);
+			}
+		}
+		return oldFiles;
 	}
 	
 	/**
 	 * Combines stats stored in seperate player files into the
 	 * new format where all stats are contained in a single file.
+	 * <p>
+	 * Players are streamed one at a time into a temporary file along with
+	 * any players already in the stats file. The temporary file replaces
+	 * the stats file in a single rename, and the old player files are only
+	 * deleted after that. If this is interrupted it can simply be run again:
+	 * before the rename nothing has changed, and after it any player that
+	 * was already combined is skipped. Files that can't be read as a player
+	 * are renamed with {@link #UNREADABLE_SUFFIX} instead of being combined,
+	 * so they don't stop the rest from being combined.
+	 * This should not be run on the UI thread.
+	 * @param listener notified as each old player file is read. May be null.
 	 * @return true if the files were succussfully combined;
 	 * false otherwise.
 	 */
-	public boolean combineSplitToSingle() {		
-		String[] files = mContext.fileList();
-		ArrayList<PlayerStats> players = new ArrayList<PlayerStats>();
+	public boolean combineSplitToSingle(MigrationListener listener) {		
+		ArrayList<String> oldFiles = getSplitStatsFiles();
+		if (oldFiles.isEmpty()) return true;
 		
-		try {		
-			// Get all the old player stats and add them to a list of players
-			FileInputStream fis;
-			ObjectInputStream in;
-			for (String file : files) {
-				fis = new FileInputStream(mContext.getFilesDir()+"/"+file);
-				in = new ObjectInputStream(fis);
-				if (!file.contains(".") && !file.equals(STATS_FILE_NAME)) {
-					Player p = (Player)in.readObject();
-					PlayerStats ps = new PlayerStats(p.mUsername, p.mTotalGames, p.mWins, p.mLosses, p.mWinStreakCur, p.mWinStreakLong);
-					players.add(ps);	// Add the player to the list
-					mContext.deleteFile(file);				// Delete the old file
+		File tempFile = new File(mContext.getFilesDir(), STATS_FILE_NAME + MIGRATION_SUFFIX);
+		ArrayList<String> unreadable = new ArrayList<String>();
+		// Hold the write lock throughout so no players are added or removed while combining
+		mStatsLock.lockWrite();
+		try {
+			// Players already in the stats file are kept, and win over old files with the same name
+			ArrayList<PlayerStats> players = getPlayerList();
+			HashSet<String> names = new HashSet<String>();
+			unreadable.clear();
+			
+			RandomAccessFile out = new RandomAccessFile(tempFile, "rw");
+			try {
+				out.setLength(0L);
+				writeHeader(0, out);
+				int count = 0;
+				for (PlayerStats p : players) {
+					names.add(p.getName().toLowerCase());
+					writePlayer(p, out);
+					count++;
+				}
+				
+				// Stream the old player stats into the new file one at a time
+				for (int i = 0; i < oldFiles.size(); i++) {
+					Player p = readSplitPlayer(oldFiles.get(i));
+					if (p == null) {
+						unreadable.add(oldFiles.get(i));
+					} else if (names.add(p.mUsername.toLowerCase())) {
+						writePlayer(new PlayerStats(p.mUsername, p.mTotalGames, p.mWins, p.mLosses, p.mWinStreakCur, p.mWinStreakLong), out);
+						count++;
+					}
+					if (listener != null) listener.onMigrationProgress(i+1, oldFiles.size());
 				}
+				
+				// Fill in the real player count and make sure it is all on disk before committing
+				out.seek(0L);
+				writeHeader(count, out);
+				out.getFD().sync();
+			} finally {
+				out.close();
 			}
 			
-			// Write the players to the new stats file
-			RandomAccessFile file = new RandomAccessFile(mDataFile, "rw");
-			file.setLength(0L);
-			
-			file.writeInt(players.size());
-			for (PlayerStats p : players) {
-				writePlayer(p, file);
-			}		
+			// Commit
+			if (!tempFile.renameTo(mDataFile)) {
+				throw new IOException("Could not replace " + STATS_FILE_NAME);
+			}
+			statsFileReplaced();
 		
-		// Delete the new stats file if an error occurs so there is not partially
-		// written data that could mess up later reads or writes
+		// Only the temporary file needs cleaning up if an error occurs, the
+		// stats file and old player files have not been touched yet
 		} catch (IOException e) {
 			Log.e("IOEx", e.toString());
-			mContext.deleteFile(STATS_FILE_NAME);
-			return false;
-		} catch (ClassNotFoundException e) {
-			Log.e("ClassEx", e.toString());
-			mContext.deleteFile(STATS_FILE_NAME);
+			tempFile.delete();
 			return false;
+		} finally {
+			mStatsLock.unlockWrite();
+		}
+		
+		// The old files are safe to delete now that their stats are committed,
+		// and unreadable ones are set aside so they aren't tried again
+		for (String file : oldFiles) {
+			if (!unreadable.contains(file)) {
+				mContext.deleteFile(file);
+			} else {
+				File from = new File(mContext.getFilesDir(), file);
+				if (!from.renameTo(new File(mContext.getFilesDir(), file + UNREADABLE_SUFFIX))) {
+					mContext.deleteFile(file);
+				}
+			}
 		}
 		
+		if (mWrapBackupManager != null && mAllowBackupManager)
+			mWrapBackupManager.dataChanged();
+		
 		return true;
 	}
+	
+	/**
+	 * Reads the stats from an old player file.
+	 * @param fileName the name of the old player file.
+	 * @return the player read from the file, or null if the file
+	 * can't be read or does not hold a named player.
+	 */
+	private Player readSplitPlayer(String fileName) {
+		try {
+			FileInputStream fis = mContext.openFileInput(fileName);
+			try {
+				ObjectInputStream in = new ObjectInputStream(fis);
+				Player p = (Player)in.readObject();
+				return (p != null && p.mUsername != null) ? p : null;
+			} finally {
+				fis.close();
+			}
+		} catch (IOException e) {
+			Log.e("IOEx", fileName + ": " + e.toString());
+		} catch (ClassNotFoundException e) {
+			Log.e("ClassEx", fileName + ": " + e.toString());
+		} catch (ClassCastException e) {
+			Log.e("ClassEx", fileName + ": " + e.toString());
+		}
+		return null;
+	}
 }
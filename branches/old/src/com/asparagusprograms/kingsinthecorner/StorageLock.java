@@ -0,0 +1,174 @@
+/**
+ * Copyright 2010,2011 Trevor Boyce
+ *
+ * This file is part of Kings in the Corner.
+ *
+ *    Kings in the Corner is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    Kings in the Corner is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with Kings in the Corner.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.asparagusprograms.kingsinthecorner;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import android.util.Log;
+
+/**
+ * A read/write lock for a single data file. Each file has its own
+ * lock, so work on different files, such as reading stats and saving
+ * a game, never waits on each other, and any number of readers can
+ * read the same file at once.
+ * <p>
+ * Every lock keeps track of how often it had to wait and for how long,
+ * which can be written to the log with {@link #logMetrics()}.
+ */
+public class StorageLock {
+	/** The tag used when logging lock metrics. */
+	private static final String TAG = "StorageLock";
+
+	/** The locks created so far, by file name. */
+	private static final HashMap<String, StorageLock> sLocks = new HashMap<String, StorageLock>();
+
+	/** The name of the file this lock guards. */
+	private final String mFileName;
+
+	/** The underlying lock. */
+	private final ReentrantReadWriteLock mLock = new ReentrantReadWriteLock();
+
+	/** The number of times the lock was acquired. */
+	private final AtomicLong mAcquired = new AtomicLong();
+	/** The number of times the lock could not be acquired right away. */
+	private final AtomicLong mContended = new AtomicLong();
+	/** The total time spent waiting for the lock, in nanoseconds. */
+	private final AtomicLong mWaitNanos = new AtomicLong();
+	/** The longest time spent waiting for the lock, in nanoseconds. */
+	private final AtomicLong mMaxWaitNanos = new AtomicLong();
+
+	private StorageLock(String fileName) {
+		mFileName = fileName;
+	}
+
+	/**
+	 * Gets the lock for a data file, creating it if needed.
+	 * @param fileName the name of the file in the application's files directory.
+	 * @return the lock for the file. The same lock is always returned for the same file.
+	 */
+	public static StorageLock forFile(String fileName) {
+		synchronized (sLocks) {
+			StorageLock lock = sLocks.get(fileName);
+			if (lock == null) {
+				lock = new StorageLock(fileName);
+				sLocks.put(fileName, lock);
+			}
+			return lock;
+		}
+	}
+
+	/** Locks the file for reading. Other readers may hold the lock at the same time. */
+	public void lockRead() {
+		ReentrantReadWriteLock.ReadLock lock = mLock.readLock();
+		if (!lock.tryLock()) {
+			long start = System.nanoTime();
+			lock.lock();
+			recordWait(System.nanoTime() - start);
+		}
+		mAcquired.incrementAndGet();
+	}
+
+	/** Unlocks a read lock taken by {@link #lockRead()}. */
+	public void unlockRead() {
+		mLock.readLock().unlock();
+	}
+
+	/**
+	 * Locks the file for writing. The thread holding the write lock
+	 * may also take the read lock, but not the other way around.
+	 */
+	public void lockWrite() {
+		ReentrantReadWriteLock.WriteLock lock = mLock.writeLock();
+		if (!lock.tryLock()) {
+			long start = System.nanoTime();
+			lock.lock();
+			recordWait(System.nanoTime() - start);
+		}
+		mAcquired.incrementAndGet();
+	}
+
+	/** Unlocks a write lock taken by {@link #lockWrite()}. */
+	public void unlockWrite() {
+		mLock.writeLock().unlock();
+	}
+
+	/**
+	 * Records time spent waiting for the lock.
+	 * @param nanos the time waited, in nanoseconds.
+	 */
+	private void recordWait(long nanos) {
+		mContended.incrementAndGet();
+		mWaitNanos.addAndGet(nanos);
+		long max = mMaxWaitNanos.get();
+		while (nanos > max && !mMaxWaitNanos.compareAndSet(max, nanos)) {
+			max = mMaxWaitNanos.get();
+		}
+	}
+
+	/**
+	 * Gets the number of times the lock was acquired.
+	 * @return the number of times the lock was acquired.
+	 */
+	public long getAcquiredCount() {
+		return mAcquired.get();
+	}
+
+	/**
+	 * Gets the number of times the lock had to wait for another thread.
+	 * @return the number of times the lock was contended.
+	 */
+	public long getContendedCount() {
+		return mContended.get();
+	}
+
+	/**
+	 * Gets the total time spent waiting for the lock.
+	 * @return the total wait in milliseconds.
+	 */
+	public long getTotalWaitMillis() {
+		return mWaitNanos.get() / 1000000;
+	}
+
+	/**
+	 * Gets the longest time spent waiting for the lock.
+	 * @return the longest wait in milliseconds.
+	 */
+	public long getMaxWaitMillis() {
+		return mMaxWaitNanos.get() / 1000000;
+	}
+
+	@Override
+	public String toString() {
+		return mFileName + ": acquired " + getAcquiredCount() + ", contended " + getContendedCount() +
+				", waited " + getTotalWaitMillis() + "ms (max " + getMaxWaitMillis() + "ms)";
+	}
+
+	/** Writes the metrics of every lock to the debug log. */
+	public static void logMetrics() {
+		if (!Log.isLoggable(TAG, Log.DEBUG)) return;
+		synchronized (sLocks) {
+			for (StorageLock lock : sLocks.values()) {
+				Log.d(TAG, lock.toString());
+			}
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright 2010,2011 Trevor Boyce
+ *
+ * This file is part of Kings in the Corner.
+ *
+ *    Kings in the Corner is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    Kings in the Corner is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with Kings in the Corner.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.asparagusprograms.kingsinthecorner;
+
+import android.graphics.Rect;
+
+/**
+ * Where everything goes on a table of a given size. A new layout is made
+ * whenever the table changes size, and is shared by drawing and by finding
+ * what was touched. Layouts and their rects must never be changed once made.
+ */
+public final class TableLayout {
+	/** The size of the table. */
+	public final int width, height;
+	/** The size of a card. */
+	public final int cardWidth, cardHeight;
+	/** Where each side pile goes. */
+	public final Rect[] sides = new Rect[4];
+	/** Where each corner pile goes. Only the top left is used. */
+	public final Rect[] corners = new Rect[4];
+	/** Where the draw pile goes. */
+	public final Rect draw;
+	/** The y-coordinate for the top of the current player's hand. */
+	public final int handTop;
+	/** The y-coordinate for the top of the computer's hand, which is half off the table. */
+	public final int computerHandTop;
+	/** Finds the pile under a touch. Sides are 0 to 3 and corners are 4 to 7. */
+	public final PileHitMap hitMap;
+
+	/**
+	 * Lays out a table.
+	 * @param width The width of the table.
+	 * @param height The height of the table.
+	 * @param cardWidth The width of a card.
+	 * @param cardHeight The height of a card.
+	 */
+	public TableLayout(int width, int height, int cardWidth, int cardHeight) {
+		this.width = width;
+		this.height = height;
+		this.cardWidth = cardWidth;
+		this.cardHeight = cardHeight;
+
+		// Set up positions for side piles
+		int x = (width/2)-(cardWidth/2)-cardHeight-10-(cardHeight/5);
+		int y = (height/2)-(cardWidth/2)-(cardHeight/4);
+		sides[0] = new Rect(x, y, x+cardHeight+(cardHeight/5), y+cardWidth);
+		x = (width/2)-(cardWidth/2);
+		y = (height/2)-(cardHeight/2)-(cardHeight/4)-cardHeight-10-(cardHeight/5);
+		sides[1] = new Rect(x, y, x+cardWidth, y+cardHeight+(cardHeight/5));
+		x = (width/2)+(cardWidth/2)+10;
+		y = (height/2)-(cardWidth/2)-(cardHeight/4);
+		sides[2] = new Rect(x, y, x+cardHeight+(cardHeight/5), y+cardWidth);
+		x = (width/2)-(cardWidth/2);
+		y = (height/2)+(cardHeight/2)-(cardHeight/4)+10;
+		sides[3] = new Rect(x, y, x+cardWidth, y+cardHeight+(cardHeight/5));
+
+		// Set up positions for corner piles
+		x = (width/2)-(cardHeight/2)-cardHeight-(cardHeight/8);
+		y = (height/2)-(cardHeight/2)-(cardHeight/4)-cardHeight-(cardHeight/8);
+		corners[0] = new Rect(x, y, 0, 0);
+		x = (width/2)+(cardWidth/2)+(cardHeight/6);
+		y = (height/2)-(cardHeight/3)-(cardHeight/2)-cardHeight-(cardHeight/8);
+		corners[1] = new Rect(x, y, 0, 0);
+		x = (width/2)+(cardWidth/2)+(cardHeight/6);
+		y = (height/2)+(cardHeight/2)-(cardHeight/4);
+		corners[2] = new Rect(x, y, 0, 0);
+		x = (width/2)-(cardHeight/2)-cardHeight-(cardHeight/8);
+		y = (height/2)+(cardHeight/2)-(cardHeight/4);
+		corners[3] = new Rect(x, y, 0, 0);
+
+		// Set up rectangle for the draw pile
+		x = (width/2)-(cardWidth/2);
+		y = (height/2)-(cardHeight/2)-(cardHeight/4);
+		draw = new Rect(x, y, x+cardWidth, y+cardHeight);
+
+		handTop = height-cardHeight;
+		computerHandTop = -(cardHeight/2);
+
+		hitMap = new PileHitMap(width, height, dropZones());
+	}
+
+	/**
+	 * Gets each pile's drop zone. A side's zone reaches past the pile by half
+	 * a card on each side, half a card above and a quarter card below. A
+	 * corner's zone fills the space between the two sides next to it. Sides
+	 * come first so they win where zones overlap.
+	 */
+	private Rect[] dropZones() {
+		Rect[] zones = new Rect[8];
+		for (int i = 0; i < sides.length; i++) {
+			Rect pos = sides[i];
+			zones[i] = new Rect(pos.left-(cardWidth/2), pos.top-(cardHeight/2), pos.right+(cardWidth/2)+1, pos.bottom+(cardHeight/4)+1);
+		}
+		Rect left = sides[0], top = sides[1], right = sides[2], bottom = sides[3];
+		zones[4] = new Rect(left.left, top.top, top.left-5+1, left.top-5+1);
+		zones[5] = new Rect(top.right+5, top.top-5, right.right+1, right.top+1);
+		zones[6] = new Rect(top.right+5, right.bottom+5, right.right+1, bottom.bottom+1);
+		zones[7] = new Rect(left.left, left.bottom+5, top.left-5+1, bottom.bottom+1);
+		return zones;
+	}
+}
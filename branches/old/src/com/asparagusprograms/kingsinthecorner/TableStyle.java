@@ -0,0 +1,139 @@
+/**
+ * Copyright 2010,2011 Trevor Boyce
+ *
+ * This file is part of Kings in the Corner.
+ *
+ *    Kings in the Corner is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    Kings in the Corner is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with Kings in the Corner.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.asparagusprograms.kingsinthecorner;
+import android.graphics.Color;
+import android.graphics.Paint;
+
+import com.asparagusprograms.kingsinthecorner.SpriteAtlas.Sprite;
+
+/**
+ * Everything but the cards that is drawn on a table: the sprites, the user's
+ * drawing preferences and the text, sized and placed for one {@link TableLayout}.
+ * A new style is made whenever the layout or one of these preferences changes,
+ * and is carried to the drawing thread in each {@link GameSnapshot}. Styles,
+ * their paints and their arrays must never be changed once made.
+ */
+public final class TableStyle {
+	/** The message shown when the game is over, one line per string. */
+	public static final String[] GAME_OVER_TEXT = {"Press Menu to play again", "or Back to exit."};
+	/** The largest card count with text made ahead of time. */
+	public static final int MAX_COUNT = 99;
+	/** Card counts from "00" to {@link #MAX_COUNT}, indexed by count. */
+	public static final String[] COUNT_TEXT = new String[MAX_COUNT+1];
+	static {
+		for (int i = 0; i <= MAX_COUNT; i++) {
+			COUNT_TEXT[i] = (i < 10) ? "0" + i : Integer.toString(i);
+		}
+	}
+
+	/** The layout the text is placed for. */
+	public final TableLayout layout;
+	/** The back of a card, and the same rotated 180 for the computer's hand. */
+	public final Sprite cardBack, computerCardBack;
+	/** The current turn banner for each player, or null in a single player game. */
+	public final Sprite[] playerBitmaps;
+	/** Drawn over a pile to highlight it. */
+	public final Sprite glowNormal, glowSide, glowCorner1, glowCorner2;
+	/** True if a pile a card can be played on is highlighted. */
+	public final boolean highlightCards;
+	/** True if the number of cards left in the draw pile is shown. */
+	public final boolean drawPileCount;
+	/** The paint used for the number of cards left in the draw pile. */
+	public final Paint countPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	/** The paint used for the player scores. */
+	public final Paint scorePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	/** The paint used for the message shown when the game is over. */
+	public final Paint messagePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	/** The x-coordinate of each draw pile count, indexed by count. */
+	public final int[] countX = new int[MAX_COUNT+1];
+	/** The y-coordinate of the draw pile count. */
+	public final int countY;
+	/** Score lines indexed by player then card count, or null in a single player game. */
+	public final String[][] scoreText;
+	/** The x-coordinate of each score line, indexed the same as {@link #scoreText}. */
+	public final int[][] scoreX;
+	/** The y-coordinate of each player's score line. */
+	public final int[] scoreY;
+	/** The position of each line of {@link #GAME_OVER_TEXT}. */
+	public final int[] gameOverX = new int[GAME_OVER_TEXT.length], gameOverY = new int[GAME_OVER_TEXT.length];
+
+	/**
+	 * Makes a style, sizing the paints for the layout's cards and making
+	 * every string that can be drawn, with its position, ahead of time.
+	 * @param layout The layout to place the text for.
+	 * @param playerCount The number of players, 1 for a game against the computer.
+	 * @param cardBack The back of a card.
+	 * @param playerBitmaps The turn banner for each player, or null in a single player game.
+	 * @param glows The normal, side, first corner and second corner highlights.
+	 * @param highlightCards True if playable piles are highlighted.
+	 * @param drawPileCount True if the draw pile count is shown.
+	 * @param countColor The color of the draw pile count.
+	 * @param scoreColor The color of the player scores.
+	 */
+	public TableStyle(TableLayout layout, int playerCount, Sprite cardBack, Sprite[] playerBitmaps, Sprite[] glows,
+			boolean highlightCards, boolean drawPileCount, int countColor, int scoreColor) {
+		this.layout = layout;
+		this.cardBack = cardBack;
+		this.computerCardBack = cardBack.rotated(180);
+		this.playerBitmaps = (playerBitmaps == null) ? null : playerBitmaps.clone();
+		this.glowNormal = glows[0];
+		this.glowSide = glows[1];
+		this.glowCorner1 = glows[2];
+		this.glowCorner2 = glows[3];
+		this.highlightCards = highlightCards;
+		this.drawPileCount = drawPileCount;
+
+		int width = layout.width;
+		int height = layout.height;
+		countPaint.setColor(countColor);
+		countPaint.setTextSize(layout.cardHeight/2);
+		countY = (height/2)-(int)countPaint.descent();
+		for (int i = 0; i <= MAX_COUNT; i++) {
+			countX[i] = (width/2)-((int)countPaint.measureText(COUNT_TEXT[i])/2);
+		}
+
+		if (playerCount > 1) {
+			scorePaint.setColor(scoreColor);
+			scorePaint.setTextSize(layout.cardHeight/5);
+			scoreText = new String[playerCount][MAX_COUNT+1];
+			scoreX = new int[playerCount][MAX_COUNT+1];
+			scoreY = new int[playerCount];
+			for (int i = 0; i < playerCount; i++) {
+				for (int count = 0; count <= MAX_COUNT; count++) {
+					scoreText[i][count] = "Player " + (i+1) + ": " + count + " ";
+					scoreX[i][count] = (int)(width-scorePaint.measureText(scoreText[i][count])-2);
+				}
+				scoreY[i] = (int)((i+1)*(scorePaint.descent()-scorePaint.ascent()));
+			}
+		} else {
+			scoreText = null;
+			scoreX = null;
+			scoreY = null;
+		}
+
+		messagePaint.setColor(Color.BLACK);
+		messagePaint.setTextSize(layout.cardHeight/4);
+		for (int i = 0; i < GAME_OVER_TEXT.length; i++) {
+			gameOverX[i] = (width/2)-(int)(messagePaint.measureText(GAME_OVER_TEXT[i])/2);
+		}
+		gameOverY[0] = (height/2)-(int)messagePaint.descent();
+		gameOverY[1] = (height/2)+(int)messagePaint.descent()-(int)messagePaint.ascent();
+	}
+}
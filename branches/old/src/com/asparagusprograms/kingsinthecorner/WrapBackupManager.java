@@ -31,6 +31,8 @@ public class WrapBackupManager {
 	       mInstance = new BackupManager(context);
 	   }
 
+	   /* notifies right away so the request isn't lost if the process is killed,
+	    * the Backup Manager already folds repeated calls into one backup */
 	   public void dataChanged() {
 	       mInstance.dataChanged();
 	   }